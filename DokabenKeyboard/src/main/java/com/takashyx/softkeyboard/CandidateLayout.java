@@ -0,0 +1,111 @@
+package com.takashyx.softkeyboard;
+
+import java.util.Arrays;
+
+/**
+ * Where the suggestions of the strip start and end, measured lazily.
+ *
+ * Positions are prefix sums of the suggestion widths, known up to the last suggestion
+ * measured.  Suggestions are measured in order only as far as a position asks for, so
+ * the cost of finding the suggestion at a point does not depend on how many there are
+ * past it.
+ */
+final class CandidateLayout {
+
+    /** Measures suggestions, gaps included. */
+    interface Widths {
+        int width(int index);
+    }
+
+    /** Initial capacity of the position array, which grows as needed. */
+    private static final int INITIAL_SUGGESTIONS = 32;
+
+    private final Widths mWidths;
+    /* mWordX[i] is where suggestion i starts, known for i <= mMeasuredCount */
+    private int[] mWordX = new int[INITIAL_SUGGESTIONS + 1];
+    /* suggestions measured so far, in order */
+    private int mMeasuredCount;
+    private int mCount;
+
+    CandidateLayout(Widths widths) {
+        mWidths = widths;
+    }
+
+    /**
+     * There are now {@code count} suggestions, of which the ones from {@code index} on
+     * changed.  Those are measured again once needed.
+     */
+    void reset(int index, int count) {
+        if (mWordX.length < count + 1) {
+            mWordX = Arrays.copyOf(mWordX, Math.max(count + 1, mWordX.length * 2));
+        }
+        mCount = count;
+        mMeasuredCount = Math.min(Math.min(mMeasuredCount, index), count);
+    }
+
+    /**
+     * Measure suggestions end to end until one covers {@code x} or all are measured.
+     * Returns where the measured ones end.
+     */
+    int measureUpTo(int x) {
+        final int count = mCount;
+        int measured = mMeasuredCount;
+        int end = mWordX[measured];
+        while (measured < count && end <= x) {
+            end += mWidths.width(measured);
+            mWordX[++measured] = end;
+        }
+        mMeasuredCount = measured;
+        return end;
+    }
+
+    /**
+     * Returns the index of the suggestion at {@code x}, or -1 if there is none there.
+     */
+    int indexAt(int x) {
+        if (x < 0 || x >= measureUpTo(x)) {
+            return -1;
+        }
+        int low = 0;
+        int high = mMeasuredCount - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (mWordX[mid] <= x) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Where suggestion {@code index} starts; it must have been measured.
+     */
+    int start(int index) {
+        return mWordX[index];
+    }
+
+    /**
+     * Where suggestion {@code index} ends; it must have been measured.
+     */
+    int end(int index) {
+        return mWordX[index + 1];
+    }
+
+    int getMeasuredCount() {
+        return mMeasuredCount;
+    }
+
+    /**
+     * The width of all suggestions, where the ones not measured yet are assumed to be
+     * as wide as the average so far.
+     */
+    int estimateWidth() {
+        final int measured = mWordX[mMeasuredCount];
+        if (mMeasuredCount == mCount || mMeasuredCount == 0) {
+            return measured;
+        }
+        return measured + (int) ((long) measured * (mCount - mMeasuredCount) / mMeasuredCount);
+    }
+}
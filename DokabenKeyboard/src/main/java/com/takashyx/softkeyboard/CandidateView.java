@@ -16,52 +16,87 @@
 
 package com.takashyx.softkeyboard;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Trace;
+import android.util.Log;
+import android.view.Display;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.View;
+import android.widget.OverScroller;
 
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Shows the suggestions in a horizontally scrolling strip.
+ *
+ * The strip is virtualized: suggestions are measured only once the visible window
+ * reaches them, with widths from a {@link TextWidthCache}, and their x positions are
+ * kept as prefix sums by a {@link CandidateLayout}.  Drawing only walks the visible
+ * suggestions and hit testing is a binary search, so the cost of a frame does not
+ * depend on how many suggestions there are.  Drags scroll directly; flings and the
+ * snap that lines a suggestion up with the left edge afterwards are run by an
+ * {@link OverScroller} from {@link #computeScroll}.
+ */
 public class CandidateView extends View {
 
-    private static final int OUT_OF_BOUNDS = -1;
+    private static final String TAG = "CandidateView";
+
+    /* trace counters of the strip's frames */
+    private static final String TRACE_DRAW = "CandidateView draw us";
+    private static final String TRACE_DROPPED_FRAMES = "CandidateView dropped frames";
 
     private SoftKeyboard mService;
-    private List<String> mSuggestions;
-    private int mSelectedIndex;
-    private int mTouchX = OUT_OF_BOUNDS;
+    private final ArrayList<String> mSuggestions = new ArrayList<String>();
+    private int mSelectedIndex = -1;
     private Drawable mSelectionHighlight;
     private boolean mTypedWordValid;
     
     private Rect mBgPadding;
+    private final Rect mHighlightPadding = new Rect();
 
-    private static final int MAX_SUGGESTIONS = 32;
-    private static final int SCROLL_PIXELS = 20;
-    
-    private int[] mWordWidth = new int[MAX_SUGGESTIONS];
-    private int[] mWordX = new int[MAX_SUGGESTIONS];
+    /** Duration in ms of the snap after a drag or fling. */
+    private static final int SNAP_DURATION = 150;
+
+    /* where the suggestions are, measured as far as drawing and touches reach */
+    private final CandidateLayout mLayout = new CandidateLayout(new CandidateLayout.Widths() {
+        @Override
+        public int width(int index) {
+            return mWidthCache.width(mSuggestions.get(index)) + X_GAP * 2;
+        }
+    });
 
     private static final int X_GAP = 10;
-    
-    private static final List<String> EMPTY_LIST = new ArrayList<String>();
+
+    /** Suggestion widths kept across suggestion sets, which mostly repeat. */
+    private static final int WIDTH_CACHE_SIZE = 256;
 
     private int mColorNormal;
     private int mColorRecommended;
     private int mColorOther;
     private int mVerticalPadding;
+    /* height asked for in the last measure pass */
+    private int mDesiredHeight;
+    /* layout passes so far, to count them per keystroke */
+    private int mLayoutCount;
     private Paint mPaint;
+    private TextWidthCache mWidthCache;
     private boolean mScrolled;
-    private int mTargetScrollX;
-    
-    private int mTotalWidth;
+
+    private OverScroller mScroller;
+    /* the running scroller animation is the snap that ends a drag or fling */
+    private boolean mSnapping;
+    /* frames of the running scroll animation, to count the dropped ones */
+    private long mFrameIntervalNanos;
+    private long mLastFrameNanos;
+    private int mAnimationFrames;
+    private int mDroppedFrames;
     
     private GestureDetector mGestureDetector;
 
@@ -80,6 +115,7 @@ public class CandidateView extends View {
                 android.R.attr.state_window_focused,
                 android.R.attr.state_pressed
         });
+        mSelectionHighlight.getPadding(mHighlightPadding);
 
         Resources r = context.getResources();
         
@@ -95,25 +131,31 @@ public class CandidateView extends View {
         mPaint.setAntiAlias(true);
         mPaint.setTextSize(r.getDimensionPixelSize(R.dimen.candidate_font_height));
         mPaint.setStrokeWidth(0);
+        mWidthCache = new TextWidthCache(mPaint, WIDTH_CACHE_SIZE);
+        mScroller = new OverScroller(context);
         
         mGestureDetector = new GestureDetector(new GestureDetector.SimpleOnGestureListener() {
             @Override
             public boolean onScroll(MotionEvent e1, MotionEvent e2,
                     float distanceX, float distanceY) {
                 mScrolled = true;
-                int sx = getScrollX();
-                sx += distanceX;
-                if (sx < 0) {
-                    sx = 0;
-                }
-                if (sx + getWidth() > mTotalWidth) {                    
-                    sx -= distanceX;
-                }
-                mTargetScrollX = sx;
-                scrollTo(sx, getScrollY());
+                scrollTo(clampScroll(getScrollX() + (int) distanceX), getScrollY());
                 invalidate();
                 return true;
             }
+
+            @Override
+            public boolean onFling(MotionEvent e1, MotionEvent e2,
+                    float velocityX, float velocityY) {
+                mScrolled = true;
+                beginAnimation();
+                // The end of the strip is not known until it is measured, so the fling
+                // is left unbounded and clamped in computeScroll.
+                mScroller.fling(getScrollX(), 0, (int) -velocityX, 0,
+                        0, Integer.MAX_VALUE / 2, 0, 0);
+                postInvalidateOnAnimation();
+                return true;
+            }
         });
         setHorizontalFadingEdgeEnabled(true);
         setWillNotDraw(false);
@@ -131,36 +173,45 @@ public class CandidateView extends View {
     
     @Override
     public int computeHorizontalScrollRange() {
-        return mTotalWidth;
+        return mLayout.estimateWidth();
     }
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int measuredWidth = resolveSize(50, widthMeasureSpec);
-        
-        // Get the desired height of the icon menu view (last row of items does
-        // not have a divider below)
-        Rect padding = new Rect();
-        mSelectionHighlight.getPadding(padding);
-        final int desiredHeight = ((int)mPaint.getTextSize()) + mVerticalPadding
-                + padding.top + padding.bottom;
+        mDesiredHeight = getDesiredHeight();
         
         // Maximum possible width and desired height
         setMeasuredDimension(measuredWidth,
-                resolveSize(desiredHeight, heightMeasureSpec));
+                resolveSize(mDesiredHeight, heightMeasureSpec));
+    }
+
+    /**
+     * Get the desired height of the icon menu view (last row of items does
+     * not have a divider below)
+     */
+    private int getDesiredHeight() {
+        return ((int) mPaint.getTextSize()) + mVerticalPadding
+                + mHighlightPadding.top + mHighlightPadding.bottom;
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+        mLayoutCount++;
     }
 
     /**
-     * If the canvas is null, then only touch calculations are performed to pick the target
-     * candidate.
+     * Number of layout passes the strip has gone through.
      */
+    int getLayoutCount() {
+        return mLayoutCount;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
-        if (canvas != null) {
-            super.onDraw(canvas);
-        }
-        mTotalWidth = 0;
-        if (mSuggestions == null) return;
+        final long start = System.nanoTime();
+        super.onDraw(canvas);
         
         if (mBgPadding == null) {
             mBgPadding = new Rect(0, 0, 0, 0);
@@ -168,96 +219,180 @@ public class CandidateView extends View {
                 getBackground().getPadding(mBgPadding);
             }
         }
-        int x = 0;
-        final int count = mSuggestions.size(); 
         final int height = getHeight();
         final Rect bgPadding = mBgPadding;
         final Paint paint = mPaint;
-        final int touchX = mTouchX;
         final int scrollX = getScrollX();
         final boolean scrolled = mScrolled;
         final boolean typedWordValid = mTypedWordValid;
         final int y = (int) (((height - mPaint.getTextSize()) / 2) - mPaint.ascent());
 
-        for (int i = 0; i < count; i++) {
+        // Only the suggestions in the visible window are drawn.
+        final CandidateLayout layout = mLayout;
+        final int first = layout.indexAt(Math.max(scrollX, 0));
+        final int last = first < 0 ? -2 : layout.indexAt(
+                Math.min(scrollX + getWidth(), layout.measureUpTo(scrollX + getWidth())) - 1);
+        for (int i = first; i <= last; i++) {
             String suggestion = mSuggestions.get(i);
-            float textWidth = paint.measureText(suggestion);
-            final int wordWidth = (int) textWidth + X_GAP * 2;
+            final int x = layout.start(i);
+            final int wordWidth = layout.end(i) - x;
 
-            mWordX[i] = x;
-            mWordWidth[i] = wordWidth;
             paint.setColor(mColorNormal);
-            if (touchX + scrollX >= x && touchX + scrollX < x + wordWidth && !scrolled) {
-                if (canvas != null) {
-                    canvas.translate(x, 0);
-                    mSelectionHighlight.setBounds(0, bgPadding.top, wordWidth, height);
-                    mSelectionHighlight.draw(canvas);
-                    canvas.translate(-x, 0);
-                }
-                mSelectedIndex = i;
+            if (i == mSelectedIndex && !scrolled) {
+                canvas.translate(x, 0);
+                mSelectionHighlight.setBounds(0, bgPadding.top, wordWidth, height);
+                mSelectionHighlight.draw(canvas);
+                canvas.translate(-x, 0);
             }
 
-            if (canvas != null) {
-                if ((i == 1 && !typedWordValid) || (i == 0 && typedWordValid)) {
-                    paint.setFakeBoldText(true);
-                    paint.setColor(mColorRecommended);
-                } else if (i != 0) {
-                    paint.setColor(mColorOther);
-                }
-                canvas.drawText(suggestion, x + X_GAP, y, paint);
-                paint.setColor(mColorOther); 
-                canvas.drawLine(x + wordWidth + 0.5f, bgPadding.top, 
-                        x + wordWidth + 0.5f, height + 1, paint);
-                paint.setFakeBoldText(false);
+            if ((i == 1 && !typedWordValid) || (i == 0 && typedWordValid)) {
+                paint.setFakeBoldText(true);
+                paint.setColor(mColorRecommended);
+            } else if (i != 0) {
+                paint.setColor(mColorOther);
             }
-            x += wordWidth;
+            canvas.drawText(suggestion, x + X_GAP, y, paint);
+            paint.setColor(mColorOther); 
+            canvas.drawLine(x + wordWidth + 0.5f, bgPadding.top, 
+                    x + wordWidth + 0.5f, height + 1, paint);
+            paint.setFakeBoldText(false);
         }
-        mTotalWidth = x;
-        if (mTargetScrollX != getScrollX()) {
-            scrollToTarget();
+        Trace.setCounter(TRACE_DRAW, (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+     * Clamp a scroll position to the strip, measuring up to the window's right edge.
+     */
+    private int clampScroll(int sx) {
+        final int width = getWidth();
+        final int end = mLayout.measureUpTo(sx + width);
+        if (sx + width > end) {
+            sx = end - width;
         }
+        return Math.max(sx, 0);
     }
-    
-    private void scrollToTarget() {
-        int sx = getScrollX();
-        if (mTargetScrollX > sx) {
-            sx += SCROLL_PIXELS;
-            if (sx >= mTargetScrollX) {
-                sx = mTargetScrollX;
-                requestLayout();
-            }
+
+    @Override
+    public void computeScroll() {
+        if (!mScroller.computeScrollOffset()) {
+            return;
+        }
+        countFrame();
+        final int x = mScroller.getCurrX();
+        final int clamped = clampScroll(x);
+        if (clamped != x) {
+            // Ran into an end of the strip.
+            mScroller.forceFinished(true);
+        }
+        scrollTo(clamped, getScrollY());
+        if (!mScroller.isFinished()) {
+            postInvalidateOnAnimation();
+        } else if (!mSnapping) {
+            snap();
         } else {
-            sx -= SCROLL_PIXELS;
-            if (sx <= mTargetScrollX) {
-                sx = mTargetScrollX;
-                requestLayout();
+            endAnimation();
+        }
+    }
+
+    /**
+     * Scroll the suggestion under the left edge, or the next one if it is mostly
+     * scrolled out, to line up with the edge.
+     */
+    private void snap() {
+        final int sx = getScrollX();
+        final int index = mLayout.indexAt(sx);
+        int target = sx;
+        if (index >= 0) {
+            final int start = mLayout.start(index);
+            final int next = mLayout.end(index);
+            target = clampScroll(sx - start < (next - start) / 2 ? start : next);
+        }
+        if (target == sx) {
+            endAnimation();
+            return;
+        }
+        mSnapping = true;
+        mScroller.startScroll(sx, 0, target - sx, 0, SNAP_DURATION);
+        postInvalidateOnAnimation();
+    }
+
+    private void beginAnimation() {
+        mScroller.forceFinished(true);
+        mSnapping = false;
+        final Display display = getDisplay();
+        final float refreshRate = display != null ? display.getRefreshRate() : 60;
+        mFrameIntervalNanos = (long) (1000000000 / refreshRate);
+        mLastFrameNanos = 0;
+        mAnimationFrames = 0;
+        mDroppedFrames = 0;
+    }
+
+    /**
+     * Count a frame of the scroll animation, and the frames dropped since the last one.
+     */
+    private void countFrame() {
+        final long now = System.nanoTime();
+        if (mLastFrameNanos != 0) {
+            final long interval = mFrameIntervalNanos;
+            final int dropped = (int) ((now - mLastFrameNanos + interval / 2) / interval) - 1;
+            if (dropped > 0) {
+                mDroppedFrames += dropped;
+                Trace.setCounter(TRACE_DROPPED_FRAMES, mDroppedFrames);
             }
         }
-        scrollTo(sx, getScrollY());
-        invalidate();
+        mLastFrameNanos = now;
+        mAnimationFrames++;
+    }
+
+    private void endAnimation() {
+        mSnapping = false;
+        if (SoftKeyboard.DEBUG) {
+            Log.i(TAG, "scrolled in " + mAnimationFrames + " frames, "
+                    + mDroppedFrames + " dropped");
+        }
     }
 
-    @SuppressLint("WrongCall")
+    /**
+     * Show a new set of suggestions.  They are compared with the ones shown: an
+     * unchanged set costs nothing, and a changed one keeps the positions in front of
+     * its first change.  A layout is only requested if the strip's height changes.
+     */
     public void setSuggestions(List<String> suggestions, boolean completions,
             boolean typedWordValid) {
-        clear();
-        if (suggestions != null) {
-            mSuggestions = new ArrayList<String>(suggestions);
+        final int count = suggestions != null ? suggestions.size() : 0;
+        final int oldCount = mSuggestions.size();
+        int unchanged = 0;
+        while (unchanged < count && unchanged < oldCount
+                && suggestions.get(unchanged).equals(mSuggestions.get(unchanged))) {
+            unchanged++;
+        }
+        if (unchanged == count && count == oldCount && typedWordValid == mTypedWordValid) {
+            return;
+        }
+        for (int i = unchanged; i < count; i++) {
+            if (i < oldCount) {
+                mSuggestions.set(i, suggestions.get(i));
+            } else {
+                mSuggestions.add(suggestions.get(i));
+            }
+        }
+        if (oldCount > count) {
+            mSuggestions.subList(count, oldCount).clear();
         }
         mTypedWordValid = typedWordValid;
+        mSelectedIndex = -1;
+        mLayout.reset(unchanged, count);
+        mScroller.forceFinished(true);
+        mSnapping = false;
         scrollTo(0, 0);
-        mTargetScrollX = 0;
-        // Compute the total width
-        onDraw(null);
         invalidate();
-        requestLayout();
+        if (getDesiredHeight() != mDesiredHeight) {
+            requestLayout();
+        }
     }
 
     public void clear() {
-        mSuggestions = EMPTY_LIST;
-        mTouchX = OUT_OF_BOUNDS;
-        mSelectedIndex = -1;
-        invalidate();
+        setSuggestions(null, false, false);
     }
     
     @Override
@@ -270,14 +405,19 @@ public class CandidateView extends View {
         int action = me.getAction();
         int x = (int) me.getX();
         int y = (int) me.getY();
-        mTouchX = x;
 
         switch (action) {
         case MotionEvent.ACTION_DOWN:
-            mScrolled = false;
+            // A touch that stops a fling does not pick anything.
+            mScrolled = !mScroller.isFinished();
+            mScroller.forceFinished(true);
+            mSelectedIndex = mLayout.indexAt(x + getScrollX());
             invalidate();
             break;
         case MotionEvent.ACTION_MOVE:
+            if (!mScrolled) {
+                mSelectedIndex = mLayout.indexAt(x + getScrollX());
+            }
             if (y <= 0) {
                 // Fling up!?
                 if (mSelectedIndex >= 0) {
@@ -292,10 +432,12 @@ public class CandidateView extends View {
                 if (mSelectedIndex >= 0) {
                     mService.pickSuggestionManually(mSelectedIndex);
                 }
+            } else {
+                beginAnimation();
+                snap();
             }
             mSelectedIndex = -1;
-            removeHighlight();
-            requestLayout();
+            invalidate();
             break;
         }
         return true;
@@ -306,19 +448,11 @@ public class CandidateView extends View {
      * gesture.
      * @param x
      */
-    @SuppressLint("WrongCall")
     public void takeSuggestionAt(float x) {
-        mTouchX = (int) x;
-        // To detect candidate
-        onDraw(null);
-        if (mSelectedIndex >= 0) {
-            mService.pickSuggestionManually(mSelectedIndex);
+        final int index = mLayout.indexAt((int) x + getScrollX());
+        if (index >= 0) {
+            mService.pickSuggestionManually(index);
         }
         invalidate();
     }
-
-    private void removeHighlight() {
-        mTouchX = OUT_OF_BOUNDS;
-        invalidate();
-    }
 }
@@ -0,0 +1,91 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * The text being composed, kept in lockstep with its dokaben conversion.
+ *
+ * Every edit the keyboard makes happens at the tail of the buffer, so the converted
+ * output and the per-character offsets into it are updated in O(1) per edit instead
+ * of reconverting the whole buffer on each key.
+ */
+final class ComposingText implements CharSequence {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final StringBuilder mText = new StringBuilder(INITIAL_CAPACITY);
+    private final StringBuilder mConverted =
+            new StringBuilder(INITIAL_CAPACITY * DokabenConverter.EXPANSION);
+
+    /** mOffsets[i] is where the conversion of mText.charAt(i) starts in mConverted. */
+    private int[] mOffsets = new int[INITIAL_CAPACITY];
+
+    @Override
+    public int length() {
+        return mText.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return mText.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return mText.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return mText.toString();
+    }
+
+    /**
+     * The dokaben conversion of the whole buffer.  The returned builder is live and must
+     * not be modified by callers.
+     */
+    CharSequence getConverted() {
+        return mConverted;
+    }
+
+    char lastChar() {
+        return mText.charAt(mText.length() - 1);
+    }
+
+    void append(char c) {
+        final int index = mText.length();
+        if (index == mOffsets.length) {
+            int[] offsets = new int[index * 2];
+            System.arraycopy(mOffsets, 0, offsets, 0, index);
+            mOffsets = offsets;
+        }
+        mOffsets[index] = mConverted.length();
+        mText.append(c);
+        appendConverted(c);
+    }
+
+    void deleteLast() {
+        final int index = mText.length() - 1;
+        mText.setLength(index);
+        mConverted.setLength(mOffsets[index]);
+    }
+
+    void replaceLast(char c) {
+        final int index = mText.length() - 1;
+        mText.setCharAt(index, c);
+        mConverted.setLength(mOffsets[index]);
+        appendConverted(c);
+    }
+
+    void clear() {
+        mText.setLength(0);
+        mConverted.setLength(0);
+    }
+
+    private void appendConverted(char c) {
+        final String shortcode = DokabenConverter.lookup(c);
+        if (shortcode != null) {
+            mConverted.append(shortcode);
+        } else {
+            mConverted.append(c);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.takashyx.softkeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Wraps the editor's InputConnection and counts the calls the keyboard makes through
+ * it.  Each of them is a binder transaction into the client app, so the count per
+ * keystroke is what to watch for regressions.
+ */
+final class CountingInputConnection extends InputConnectionWrapper {
+
+    private int mCallCount;
+
+    CountingInputConnection() {
+        super(null, true);
+    }
+
+    int getCallCount() {
+        return mCallCount;
+    }
+
+    @Override
+    public CharSequence getTextBeforeCursor(int n, int flags) {
+        mCallCount++;
+        return super.getTextBeforeCursor(n, flags);
+    }
+
+    @Override
+    public CharSequence getTextAfterCursor(int n, int flags) {
+        mCallCount++;
+        return super.getTextAfterCursor(n, flags);
+    }
+
+    @Override
+    public int getCursorCapsMode(int reqModes) {
+        mCallCount++;
+        return super.getCursorCapsMode(reqModes);
+    }
+
+    @Override
+    public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) {
+        mCallCount++;
+        return super.getExtractedText(request, flags);
+    }
+
+    @Override
+    public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+        mCallCount++;
+        return super.deleteSurroundingText(beforeLength, afterLength);
+    }
+
+    @Override
+    public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+        mCallCount++;
+        return super.deleteSurroundingTextInCodePoints(beforeLength, afterLength);
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        mCallCount++;
+        return super.setComposingText(text, newCursorPosition);
+    }
+
+    @Override
+    public boolean finishComposingText() {
+        mCallCount++;
+        return super.finishComposingText();
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        mCallCount++;
+        return super.commitText(text, newCursorPosition);
+    }
+
+    @Override
+    public boolean commitCompletion(CompletionInfo text) {
+        mCallCount++;
+        return super.commitCompletion(text);
+    }
+
+    @Override
+    public boolean setSelection(int start, int end) {
+        mCallCount++;
+        return super.setSelection(start, end);
+    }
+
+    @Override
+    public boolean beginBatchEdit() {
+        mCallCount++;
+        return super.beginBatchEdit();
+    }
+
+    @Override
+    public boolean endBatchEdit() {
+        mCallCount++;
+        return super.endBatchEdit();
+    }
+
+    @Override
+    public boolean sendKeyEvent(KeyEvent event) {
+        mCallCount++;
+        return super.sendKeyEvent(event);
+    }
+
+    @Override
+    public boolean clearMetaKeyStates(int states) {
+        mCallCount++;
+        return super.clearMetaKeyStates(states);
+    }
+}
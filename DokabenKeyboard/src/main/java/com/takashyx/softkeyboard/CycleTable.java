@@ -0,0 +1,53 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Multi-tap cycles for keys such as dakuten and kigou, where each press replaces the
+ * last character with the next one in its ring.
+ *
+ * Rings are declared as {@code int[]} and compiled into a two-level table of 256-char
+ * pages, so finding the next character is two array reads.  A character may appear in
+ * only one ring; declaring it twice is rejected rather than silently overwritten.
+ */
+final class CycleTable {
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    private final char[][] mPages = new char[(Character.MAX_VALUE + 1) >> PAGE_BITS][];
+
+    CycleTable(int[]... rings) {
+        for (int[] ring : rings) {
+            if (ring.length < 2) {
+                throw new IllegalArgumentException("A ring needs at least two characters");
+            }
+            for (int i = 0; i < ring.length; i++) {
+                final int c = ring[i];
+                if (c <= 0 || c > Character.MAX_VALUE) {
+                    throw new IllegalArgumentException(
+                            "Not a BMP character: 0x" + Integer.toHexString(c));
+                }
+                if (next(c) != 0) {
+                    throw new IllegalArgumentException(
+                            "Character 0x" + Integer.toHexString(c) + " is in two rings");
+                }
+                char[] page = mPages[c >> PAGE_BITS];
+                if (page == null) {
+                    page = new char[PAGE_MASK + 1];
+                    mPages[c >> PAGE_BITS] = page;
+                }
+                page[c & PAGE_MASK] = (char) ring[(i + 1) % ring.length];
+            }
+        }
+    }
+
+    /**
+     * Returns the character after {@code c} in its ring, or 0 if c is in no ring.
+     */
+    int next(int c) {
+        if (c < 0 || c > Character.MAX_VALUE) {
+            return 0;
+        }
+        final char[] page = mPages[c >> PAGE_BITS];
+        return page == null ? 0 : page[c & PAGE_MASK];
+    }
+}
@@ -0,0 +1,101 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Decides how much text one tick of a held delete key removes.
+ *
+ * The first ticks delete a character each, then whole words, then chunks of words, so
+ * clearing a long field takes a few dozen editor calls instead of two key events per
+ * character.  A span never ends inside a surrogate pair or a dokaben shortcode.
+ */
+final class DeleteEngine {
+
+    /** Repeats after which a tick deletes a word instead of a character. */
+    static final int WORD_AFTER = 8;
+    /** Repeats after which a tick deletes a chunk of words. */
+    static final int CHUNK_AFTER = 20;
+
+    /** Longest run of chars deleted as one word. */
+    static final int WORD_LIMIT = 16;
+    /** Chars a chunk tick deletes, rounded up to whole words. */
+    static final int CHUNK = 64;
+
+    /** Chars before the cursor one word or chunk tick may look at. */
+    static final int WINDOW = CHUNK + WORD_LIMIT + DokabenDecoder.MAX_SHORTCODE_LENGTH;
+    /**
+     * Chars fetched at once for the word and chunk ticks, which trim what they delete
+     * off the end rather than asking the editor again.
+     */
+    static final int FETCH = WINDOW * 16;
+
+    private static final int TYPE_KANA = 0;
+    private static final int TYPE_WORD = 1;
+    private static final int TYPE_OTHER = 2;
+
+    private DeleteEngine() {
+    }
+
+    /**
+     * Returns how many chars at the end of {@code before}, the text before the cursor,
+     * the tick after {@code repeats} earlier ones deletes.  Only called once repeats
+     * reach {@link #WORD_AFTER}; before that a tick deletes one code point.
+     */
+    static int span(CharSequence before, int repeats) {
+        final int end = before.length();
+        // A low surrogate at the start of the window lost its pair to the window edge.
+        final int limit = end > 0 && Character.isLowSurrogate(before.charAt(0)) ? 1 : 0;
+        if (repeats < CHUNK_AFTER) {
+            return end - wordStart(before, end, limit);
+        }
+        int start = end;
+        while (start > limit && end - start < CHUNK) {
+            start = wordStart(before, start, limit);
+        }
+        return end - start;
+    }
+
+    /**
+     * Returns where the word ending at {@code end} starts, including the whitespace
+     * after it, but never before {@code limit}.
+     */
+    private static int wordStart(CharSequence s, int end, int limit) {
+        int i = end;
+        while (i > limit && Character.isWhitespace(s.charAt(i - 1))) {
+            i--;
+        }
+        if (i <= limit) {
+            return limit;
+        }
+
+        final int shortcode = DokabenDecoder.shortcodeLengthBefore(s, i);
+        if (shortcode > 0 && i - shortcode >= limit) {
+            return i - shortcode;
+        }
+
+        final int type = typeOf(s.charAt(i - 1));
+        final int floor = Math.max(limit, i - WORD_LIMIT);
+        final int wordEnd = i;
+        while (i > floor) {
+            final char c = s.charAt(i - 1);
+            if (typeOf(c) != type
+                    || (i != wordEnd && DokabenDecoder.shortcodeLengthBefore(s, i) > 0)) {
+                break;
+            }
+            if (Character.isLowSurrogate(c) && i - 2 >= limit
+                    && Character.isHighSurrogate(s.charAt(i - 2))) {
+                i -= 2;
+            } else {
+                i--;
+            }
+        }
+        return i;
+    }
+
+    private static int typeOf(char c) {
+        if (c >= 0x3040 && c <= 0x30FF) {
+            return TYPE_KANA;
+        } else if (Character.isLetterOrDigit(c) || c == '_') {
+            return TYPE_WORD;
+        }
+        return TYPE_OTHER;
+    }
+}
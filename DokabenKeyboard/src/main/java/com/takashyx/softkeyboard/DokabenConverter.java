@@ -0,0 +1,172 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Converts katakana and hiragana into dokaben shortcodes (":dokaben_a:" ...).
+ *
+ * The shortcode table is a flat array indexed by {@code codePoint - BLOCK_START}, so
+ * conversion is a single pass over the input that appends into one presized builder.
+ * Hiragana sit {@link #KANA_OFFSET} below their katakana and are shifted into the
+ * same table rather than given one of their own.
+ */
+final class DokabenConverter {
+
+    /** First code point of the katakana block covered by {@link #KATAKANA_TABLE}. */
+    static final int BLOCK_START = 0x30A0;
+    static final int BLOCK_END = 0x30FF;
+
+    /** Hiragana with a katakana counterpart, ぁ to ゖ. */
+    static final int HIRAGANA_START = 0x3041;
+    static final int HIRAGANA_END = 0x3096;
+    /** Distance from a hiragana to its katakana. */
+    static final int KANA_OFFSET = 0x60;
+
+    static final int FULLWIDTH_EXCLAMATION = 0xFF01; // ！
+    static final int FULLWIDTH_QUESTION = 0xFF1F;    // ？
+
+    /** Rough length of one shortcode, used to presize the output. */
+    static final int EXPANSION = 12;
+
+    private static final String[] KATAKANA_TABLE = new String[BLOCK_END - BLOCK_START + 1];
+
+    static {
+        put('ア', ":dokaben_a:");
+        put('イ', ":dokaben_i:");
+        put('ウ', ":dokaben_u:");
+        put('エ', ":dokaben_e:");
+        put('オ', ":dokaben_o:");
+        put('ァ', ":dokaben_a_small:");
+        put('ィ', ":dokaben_i_small:");
+        put('ゥ', ":dokaben_u_small:");
+        put('ェ', ":dokaben_e_small:");
+        put('ォ', ":dokaben_o_small:");
+        put('カ', ":dokaben_ka:");
+        put('キ', ":dokaben_ki:");
+        put('ク', ":dokaben_ku:");
+        put('ケ', ":dokaben_ke:");
+        put('コ', ":dokaben_ko:");
+        put('ガ', ":dokaben_ga:");
+        put('ギ', ":dokaben_gi:");
+        put('グ', ":dokaben_gu:");
+        put('ゲ', ":dokaben_ge:");
+        put('ゴ', ":dokaben_go:");
+        put('サ', ":dokaben_sa:");
+        put('シ', ":dokaben_si:");
+        put('ス', ":dokaben_su:");
+        put('セ', ":dokaben_se:");
+        put('ソ', ":dokaben_so:");
+        put('ザ', ":dokaben_za:");
+        put('ジ', ":dokaben_zi:");
+        put('ズ', ":dokaben_zu:");
+        put('ゼ', ":dokaben_ze:");
+        put('ゾ', ":dokaben_zo:");
+        put('タ', ":dokaben_ta:");
+        put('チ', ":dokaben_ti:");
+        put('ツ', ":dokaben_tu:");
+        put('テ', ":dokaben_te:");
+        put('ト', ":dokaben_to:");
+        put('ダ', ":dokaben_da:");
+        put('ヂ', ":dokaben_di:");
+        put('ヅ', ":dokaben_du:");
+        put('デ', ":dokaben_de:");
+        put('ド', ":dokaben_do:");
+        put('ナ', ":dokaben_na:");
+        put('ニ', ":dokaben_ni:");
+        put('ヌ', ":dokaben_nu:");
+        put('ネ', ":dokaben_ne:");
+        put('ノ', ":dokaben_no:");
+        put('ハ', ":dokaben_ha:");
+        put('ヒ', ":dokaben_hi:");
+        put('フ', ":dokaben_hu:");
+        put('ヘ', ":dokaben_he:");
+        put('ホ', ":dokaben_ho:");
+        put('バ', ":dokaben_ba:");
+        put('ビ', ":dokaben_bi:");
+        put('ブ', ":dokaben_bu:");
+        put('ベ', ":dokaben_be:");
+        put('ボ', ":dokaben_bo:");
+        put('パ', ":dokaben_pa:");
+        put('ピ', ":dokaben_pi:");
+        put('プ', ":dokaben_pu:");
+        put('ペ', ":dokaben_pe:");
+        put('ポ', ":dokaben_po:");
+        put('マ', ":dokaben_ma:");
+        put('ミ', ":dokaben_mi:");
+        put('ム', ":dokaben_mu:");
+        put('メ', ":dokaben_me:");
+        put('モ', ":dokaben_mo:");
+        put('ヤ', ":dokaben_ya:");
+        put('ユ', ":dokaben_yu:");
+        put('ヨ', ":dokaben_yo:");
+        put('ラ', ":dokaben_ra:");
+        put('リ', ":dokaben_ri:");
+        put('ル', ":dokaben_ru:");
+        put('レ', ":dokaben_re:");
+        put('ロ', ":dokaben_ro:");
+        put('ッ', ":dokaben_tu_small:");
+        put('ャ', ":dokaben_ya_small:");
+        put('ュ', ":dokaben_yu_small:");
+        put('ョ', ":dokaben_yo_small:");
+        put('ワ', ":dokaben_wa:");
+        put('ヲ', ":dokaben_wo:");
+        put('ン', ":dokaben_n:");
+        put('ー', ":dokaben_-:");
+    }
+
+    private static final String BIKKURI = ":dokaben_bikkuri:";
+    private static final String HATENA = ":dokaben_hatena:";
+
+    private DokabenConverter() {
+    }
+
+    private static void put(char c, String shortcode) {
+        KATAKANA_TABLE[c - BLOCK_START] = shortcode;
+    }
+
+    static boolean isHiragana(int codePoint) {
+        return codePoint >= HIRAGANA_START && codePoint <= HIRAGANA_END;
+    }
+
+    /**
+     * Returns the shortcode for a code point, or null if it is passed through unchanged.
+     * A hiragana gets the shortcode of its katakana.
+     */
+    static String lookup(int codePoint) {
+        if (isHiragana(codePoint)) {
+            codePoint += KANA_OFFSET;
+        }
+        if (codePoint >= BLOCK_START && codePoint <= BLOCK_END) {
+            return KATAKANA_TABLE[codePoint - BLOCK_START];
+        } else if (codePoint == FULLWIDTH_EXCLAMATION) {
+            return BIKKURI;
+        } else if (codePoint == FULLWIDTH_QUESTION) {
+            return HATENA;
+        }
+        return null;
+    }
+
+    static String convert(CharSequence s) {
+        final int length = s.length();
+        StringBuilder out = new StringBuilder(length * EXPANSION);
+        convert(s, 0, length, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the conversion of {@code s[start, end)} to {@code out}.  Code points are
+     * walked one by one, so surrogate pairs are copied through intact.
+     */
+    static void convert(CharSequence s, int start, int end, StringBuilder out) {
+        int i = start;
+        while (i < end) {
+            final int cp = Character.codePointAt(s, i);
+            final int count = Character.charCount(cp);
+            final String shortcode = lookup(cp);
+            if (shortcode != null) {
+                out.append(shortcode);
+            } else {
+                out.append(s, i, Math.min(i + count, end));
+            }
+            i += count;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Turns dokaben shortcodes (":dokaben_a:" ...) back into katakana.  Hiragana share
+ * the shortcodes of their katakana, so they are left out of the automaton.
+ *
+ * All shortcodes known to {@link DokabenConverter} are compiled once into an
+ * Aho-Corasick automaton whose failure links are folded into a dense transition
+ * table, so decoding is one table read per input char with no backtracking, even
+ * where shortcodes share prefixes (":dokaben_a:" and ":dokaben_a_small:").
+ */
+final class DokabenDecoder {
+
+    private static final int ROOT = 0;
+
+    /** Symbol for every char that does not occur in any shortcode. */
+    private static final int OTHER = 0;
+
+    /** Maps an ASCII char to its symbol; non-ASCII chars are always {@link #OTHER}. */
+    private static final byte[] SYMBOLS = new byte[128];
+    private static final int SYMBOL_COUNT;
+
+    /** TRANSITIONS[state * SYMBOL_COUNT + symbol] is the next state. */
+    private static final int[] TRANSITIONS;
+    /** Code point produced when a state is reached, or 0. */
+    private static final int[] OUTPUT;
+    /** Length in chars of the shortcode matched by {@link #OUTPUT}. */
+    private static final int[] OUTPUT_LENGTH;
+
+    /** Length in chars of the longest shortcode. */
+    static final int MAX_SHORTCODE_LENGTH;
+
+    static {
+        int symbols = 1;
+        int stateCount = 1;
+        int maxLength = 0;
+        for (int cp = 0; cp <= 0xFFFF; cp++) {
+            final String shortcode = DokabenConverter.lookup(cp);
+            if (shortcode == null || DokabenConverter.isHiragana(cp)) {
+                continue;
+            }
+            stateCount += shortcode.length();
+            maxLength = Math.max(maxLength, shortcode.length());
+            for (int i = 0; i < shortcode.length(); i++) {
+                final char c = shortcode.charAt(i);
+                if (SYMBOLS[c] == OTHER) {
+                    SYMBOLS[c] = (byte) symbols++;
+                }
+            }
+        }
+        SYMBOL_COUNT = symbols;
+        MAX_SHORTCODE_LENGTH = maxLength;
+
+        // Build the trie.  stateCount is an upper bound; unused states stay at the end.
+        final int[] next = new int[stateCount * SYMBOL_COUNT];
+        final int[] output = new int[stateCount];
+        final int[] outputLength = new int[stateCount];
+        int states = 1;
+        for (int cp = 0; cp <= 0xFFFF; cp++) {
+            final String shortcode = DokabenConverter.lookup(cp);
+            if (shortcode == null || DokabenConverter.isHiragana(cp)) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < shortcode.length(); i++) {
+                final int index = state * SYMBOL_COUNT + SYMBOLS[shortcode.charAt(i)];
+                if (next[index] == ROOT) {
+                    next[index] = states++;
+                }
+                state = next[index];
+            }
+            output[state] = cp;
+            outputLength[state] = shortcode.length();
+        }
+
+        // Breadth-first pass computing failure links and folding them into the table.
+        final int[] fail = new int[states];
+        final int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+            final int child = next[ROOT * SYMBOL_COUNT + symbol];
+            if (child != ROOT) {
+                fail[child] = ROOT;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            if (output[state] == 0) {
+                output[state] = output[fail[state]];
+                outputLength[state] = outputLength[fail[state]];
+            }
+            for (int symbol = 0; symbol < SYMBOL_COUNT; symbol++) {
+                final int index = state * SYMBOL_COUNT + symbol;
+                final int child = next[index];
+                if (child != ROOT) {
+                    fail[child] = next[fail[state] * SYMBOL_COUNT + symbol];
+                    queue[tail++] = child;
+                } else {
+                    next[index] = next[fail[state] * SYMBOL_COUNT + symbol];
+                }
+            }
+        }
+
+        TRANSITIONS = next;
+        OUTPUT = output;
+        OUTPUT_LENGTH = outputLength;
+    }
+
+    private DokabenDecoder() {
+    }
+
+    private static int step(int state, char c) {
+        final int symbol = c < 128 ? SYMBOLS[c] : OTHER;
+        return TRANSITIONS[state * SYMBOL_COUNT + symbol];
+    }
+
+    /**
+     * Returns the index of the first shortcode in {@code s}, or -1 if there is none.
+     */
+    static int indexOfShortcode(CharSequence s) {
+        int state = ROOT;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, s.charAt(i));
+            if (OUTPUT[state] != 0) {
+                return i + 1 - OUTPUT_LENGTH[state];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the length of the shortcode that ends just before {@code end} in
+     * {@code s}, or 0 if none does.
+     */
+    static int shortcodeLengthBefore(CharSequence s, int end) {
+        if (end <= 0 || s.charAt(end - 1) != ':') {
+            return 0;
+        }
+        int state = ROOT;
+        for (int i = Math.max(0, end - MAX_SHORTCODE_LENGTH); i < end; i++) {
+            state = step(state, s.charAt(i));
+        }
+        return OUTPUT[state] != 0 ? OUTPUT_LENGTH[state] : 0;
+    }
+
+    static String decode(CharSequence s) {
+        StringBuilder out = new StringBuilder(s.length());
+        decode(s, 0, s.length(), out);
+        return out.toString();
+    }
+
+    /**
+     * Appends {@code s[start, end)} to {@code out} with every shortcode replaced by its
+     * katakana, and returns the number of shortcodes replaced.  A shortcode ends the
+     * match, so its closing colon never starts the next one.
+     */
+    static int decode(CharSequence s, int start, int end, StringBuilder out) {
+        int state = ROOT;
+        int pending = start;
+        int matches = 0;
+        for (int i = start; i < end; i++) {
+            state = step(state, s.charAt(i));
+            final int cp = OUTPUT[state];
+            if (cp != 0) {
+                out.append(s, pending, i + 1 - OUTPUT_LENGTH[state]);
+                out.appendCodePoint(cp);
+                pending = i + 1;
+                state = ROOT;
+                matches++;
+            }
+        }
+        out.append(s, pending, end);
+        return matches;
+    }
+}
@@ -27,12 +27,21 @@ public class DokabenFlingKeyboard extends Keyboard {
 
     private Key mEnterKey;
     private Key mSpaceKey;
+    /* switches the kana keys between hiragana and katakana output */
+    private Key mKanaModeKey;
+    /* the layout labels it katakana */
+    private boolean mHiraganaMode;
+    /* the style the enter key shows, -1 until set */
+    private int mEnterStyle = -1;
+    /* the layout shows the language switch key */
+    private boolean mLanguageSwitchVisible = true;
 
     /**
      * Stores the current state of the mode change key. Its width will be dynamically updated to
-     * match the region of {@link #mModeChangeKey} when {@link #mModeChangeKey} becomes invisible.
-    private Key mModeChangeKey;
+     * cover the region of {@link #mLanguageSwitchKey} when {@link #mLanguageSwitchKey} becomes
+     * invisible.
      */
+    private Key mModeChangeKey;
 
     /**
      * Stores the current state of the language switch key (a.k.a. globe key). This should be
@@ -57,6 +66,11 @@ public class DokabenFlingKeyboard extends Keyboard {
         super(context, xmlLayoutResId);
     }
 
+    public DokabenFlingKeyboard(Context context, int xmlLayoutResId, int modeId, int width,
+                                int height) {
+        super(context, xmlLayoutResId, modeId, width, height);
+    }
+
     public DokabenFlingKeyboard(Context context, int layoutTemplateResId,
                                 CharSequence characters, int columns, int horizontalPadding) {
         super(context, layoutTemplateResId, characters, columns, horizontalPadding);
@@ -70,6 +84,11 @@ public class DokabenFlingKeyboard extends Keyboard {
             mEnterKey = key;
         } else if (key.codes[0] == ' ') {
             mSpaceKey = key;
+        } else if (key.codes[0] == DokabenFlingKeyboardView.KEYCODE_KANA_MODE) {
+            mKanaModeKey = key;
+        } else if (key.codes[0] == KEYCODE_MODE_CHANGE) {
+            mModeChangeKey = key;
+            mSavedModeChangeKey = new LatinKey(res, parent, x, y, parser);
         } else if (key.codes[0] == DokabenFlingKeyboardView.KEYCODE_LANGUAGE_SWITCH) {
             mLanguageSwitchKey = key;
             mSavedLanguageSwitchKey = new LatinKey(res, parent, x, y, parser);
@@ -80,48 +99,88 @@ public class DokabenFlingKeyboard extends Keyboard {
     /**
      * Dynamically change the visibility of the language switch key (a.k.a. globe key).
      * @param visible True if the language switch key should be visible.
+     * @return True if the keys changed.
      */
-    void setLanguageSwitchKeyVisibility(boolean visible) {
+    boolean setLanguageSwitchKeyVisibility(boolean visible) {
+        if (mLanguageSwitchKey == null || visible == mLanguageSwitchVisible) {
+            return false;
+        }
+        mLanguageSwitchVisible = visible;
         if (visible) {
             // The language switch key should be visible. Restore the size of the mode change key
             // and language switch key using the saved layout.
+            if (mModeChangeKey != null) {
+                mModeChangeKey.width = mSavedModeChangeKey.width;
+            }
             mLanguageSwitchKey.width = mSavedLanguageSwitchKey.width;
             mLanguageSwitchKey.icon = mSavedLanguageSwitchKey.icon;
             mLanguageSwitchKey.iconPreview = mSavedLanguageSwitchKey.iconPreview;
         } else {
             // The language switch key should be hidden. Change the width of the mode change key
             // to fill the space of the language key so that the user will not see any strange gap.
+            if (mModeChangeKey != null) {
+                mModeChangeKey.width = mSavedLanguageSwitchKey.x + mSavedLanguageSwitchKey.width
+                        - mSavedModeChangeKey.x;
+            }
             mLanguageSwitchKey.width = 0;
             mLanguageSwitchKey.icon = null;
             mLanguageSwitchKey.iconPreview = null;
         }
+        return true;
     }
 
+    /* styles of the enter key */
+    static final int ENTER_DEFAULT = 0;
+    static final int ENTER_GO = 1;
+    static final int ENTER_NEXT = 2;
+    static final int ENTER_SEARCH = 3;
+    static final int ENTER_SEND = 4;
+
     /**
-     * This looks at the ime options given by the current editor, to set the
-     * appropriate label on the keyboard's enter key (if it has one).
+     * This looks at the ime options given by the current editor, to pick the
+     * appropriate style for the keyboard's enter key.
      */
-    void setImeOptions(Resources res, int options) {
-        if (mEnterKey == null) {
-            return;
-        }
-
+    static int enterStyle(int options) {
         switch (options&(EditorInfo.IME_MASK_ACTION|EditorInfo.IME_FLAG_NO_ENTER_ACTION)) {
             case EditorInfo.IME_ACTION_GO:
+                return ENTER_GO;
+            case EditorInfo.IME_ACTION_NEXT:
+                return ENTER_NEXT;
+            case EditorInfo.IME_ACTION_SEARCH:
+                return ENTER_SEARCH;
+            case EditorInfo.IME_ACTION_SEND:
+                return ENTER_SEND;
+            default:
+                return ENTER_DEFAULT;
+        }
+    }
+
+    /**
+     * Set the label or icon on the keyboard's enter key (if it has one).  Returns true
+     * if it changed.
+     */
+    boolean setEnterStyle(Resources res, int style) {
+        if (mEnterKey == null || style == mEnterStyle) {
+            return false;
+        }
+        mEnterStyle = style;
+
+        switch (style) {
+            case ENTER_GO:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
                 mEnterKey.label = res.getText(R.string.label_go_key);
                 break;
-            case EditorInfo.IME_ACTION_NEXT:
+            case ENTER_NEXT:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
                 mEnterKey.label = res.getText(R.string.label_next_key);
                 break;
-            case EditorInfo.IME_ACTION_SEARCH:
+            case ENTER_SEARCH:
                 mEnterKey.icon = res.getDrawable(R.drawable.sym_keyboard_search);
                 mEnterKey.label = null;
                 break;
-            case EditorInfo.IME_ACTION_SEND:
+            case ENTER_SEND:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
                 mEnterKey.label = res.getText(R.string.label_send_key);
@@ -131,6 +190,21 @@ public class DokabenFlingKeyboard extends Keyboard {
                 mEnterKey.label = null;
                 break;
         }
+        return true;
+    }
+
+    /**
+     * Label the kana mode key (if there is one) with the kana the keys output.  Returns
+     * true if the label changed.
+     */
+    boolean setHiraganaMode(Resources res, boolean hiragana) {
+        if (mKanaModeKey == null || hiragana == mHiraganaMode) {
+            return false;
+        }
+        mHiraganaMode = hiragana;
+        mKanaModeKey.label = res.getText(
+                hiragana ? R.string.label_hiragana_key : R.string.label_katakana_key);
+        return true;
     }
 
     static class LatinKey extends Keyboard.Key {
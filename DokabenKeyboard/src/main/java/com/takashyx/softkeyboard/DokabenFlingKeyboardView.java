@@ -17,13 +17,33 @@
 package com.takashyx.softkeyboard;
 
 import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
-import android.inputmethodservice.KeyboardView;
+import android.inputmethodservice.KeyboardView.OnKeyboardActionListener;
 import android.util.AttributeSet;
-import android.view.inputmethod.InputMethodSubtype;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
 
-public class DokabenFlingKeyboardView extends KeyboardView {
+import java.util.List;
+
+/**
+ * Draws a {@link Keyboard} and turns touches on it into key events.
+ *
+ * This replaces the framework's deprecated KeyboardView, which redrew its whole buffer
+ * on every key state change.  Key rects and label positions are computed once per size
+ * and keyboard, the idle keyboard is recorded into a RenderNode, and a press only draws
+ * the pressed key on top of it.  Keys are tracked per pointer; a key is sent for the
+ * key the pointer went down on, however far it moved, since moving is how kana are
+ * flicked.
+ */
+public class DokabenFlingKeyboardView extends View {
 
     static final int KEYCODE_OPTIONS = -100;
     // TODO: Move this into android.inputmethodservice.Keyboard
@@ -34,22 +54,463 @@ public class DokabenFlingKeyboardView extends KeyboardView {
     static final int KEYCODE_DAKUTEN = -104;
     static final int KEYCODE_KIGOU = -105;
     static final int KEYCODE_DOKABEN = -106;
+    static final int KEYCODE_KANA_MODE = -107;
+
+    private static final int REPEAT_START_DELAY = 400;
+    private static final int REPEAT_INTERVAL = 50;
+
+    /** Label size as a fraction of the key height, shrunk further to fit the width. */
+    private static final float LABEL_RATIO = 0.4f;
+
+    /**
+     * Receives the cost of every frame the keyboard draws, to compare the draw cost
+     * per press with other renderers.
+     */
+    interface DrawListener {
+        /**
+         * @param drawNanos time spent in onDraw
+         * @param recorded whether the idle keyboard had to be recorded again
+         */
+        void onKeyboardDrawn(long drawNanos, boolean recorded);
+    }
+
+    private OnKeyboardActionListener mKeyboardActionListener;
+    private DrawListener mDrawListener;
+    private Keyboard mKeyboard;
+    private Key[] mKeys = new Key[0];
+
+    /* key rects in view coordinates, inset by the key gap, and label layout */
+    private int[] mKeyLeft = new int[0];
+    private int[] mKeyTop = new int[0];
+    private int[] mKeyRight = new int[0];
+    private int[] mKeyBottom = new int[0];
+    private CharSequence[] mLabels = new CharSequence[0];
+    private float[] mLabelSize = new float[0];
+    private float[] mLabelY = new float[0];
+    private boolean mLayoutValid;
+
+    private final RenderNode mIdleKeyboard = new RenderNode("DokabenFlingKeyboardView");
+    private boolean mIdleKeyboardValid;
+
+    private final Paint mKeyPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mPressedKeyPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLabelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final int mBackgroundColor;
+    private final float mKeyInset;
+    private final float mKeyRadius;
+
+    /* index of the key each pointer went down on, or -1 */
+    private final int[] mPointerKey = new int[OnSwipeTouchListener.MAX_POINTERS];
+    /* pointer whose key is repeating or waiting for a long press, or -1 */
+    private int mRepeatPointer = -1;
+    private boolean mLongPressed;
+
+    private final Runnable mRepeat = new Runnable() {
+        @Override
+        public void run() {
+            final int index = mRepeatPointer < 0 ? -1 : mPointerKey[mRepeatPointer];
+            if (index >= 0) {
+                sendKey(mKeys[index]);
+                postDelayed(this, REPEAT_INTERVAL);
+            }
+        }
+    };
+
+    private final Runnable mLongPress = new Runnable() {
+        @Override
+        public void run() {
+            final int index = mRepeatPointer < 0 ? -1 : mPointerKey[mRepeatPointer];
+            if (index >= 0 && onLongPress(mKeys[index])) {
+                mLongPressed = true;
+            }
+        }
+    };
 
     public DokabenFlingKeyboardView(Context context, AttributeSet attrs) {
-        super(context, attrs);
+        this(context, attrs, 0);
     }
 
     public DokabenFlingKeyboardView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        final Resources res = context.getResources();
+        mBackgroundColor = context.getColor(R.color.keyboard_background);
+        mKeyPaint.setColor(context.getColor(R.color.key_normal));
+        mPressedKeyPaint.setColor(context.getColor(R.color.key_pressed));
+        mLabelPaint.setColor(context.getColor(R.color.key_label));
+        mLabelPaint.setTextAlign(Paint.Align.CENTER);
+        mKeyInset = res.getDimension(R.dimen.key_inset);
+        mKeyRadius = res.getDimension(R.dimen.key_radius);
+        for (int i = 0; i < mPointerKey.length; i++) {
+            mPointerKey[i] = -1;
+        }
+    }
+
+    public void setOnKeyboardActionListener(OnKeyboardActionListener listener) {
+        mKeyboardActionListener = listener;
+    }
+
+    protected OnKeyboardActionListener getOnKeyboardActionListener() {
+        return mKeyboardActionListener;
+    }
+
+    void setDrawListener(DrawListener listener) {
+        mDrawListener = listener;
+    }
+
+    public void setKeyboard(Keyboard keyboard) {
+        if (mKeyboard != null) {
+            closing();
+        }
+        mKeyboard = keyboard;
+        final List<Key> keys = keyboard.getKeys();
+        mKeys = keys.toArray(new Key[keys.size()]);
+        requestLayout();
+        invalidateAllKeys();
+    }
+
+    public Keyboard getKeyboard() {
+        return mKeyboard;
+    }
+
+    public boolean setShifted(boolean shifted) {
+        if (mKeyboard != null && mKeyboard.setShifted(shifted)) {
+            invalidateAllKeys();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isShifted() {
+        return mKeyboard != null && mKeyboard.isShifted();
+    }
+
+    /**
+     * Redraw every key, after their labels, icons or sizes changed.
+     */
+    public void invalidateAllKeys() {
+        mLayoutValid = false;
+        mIdleKeyboardValid = false;
+        invalidate();
+    }
+
+    /**
+     * Release every pressed key without sending it, e.g. when the keyboard is hidden.
+     */
+    public void closing() {
+        cancelRepeat();
+        for (int pointer = 0; pointer < mPointerKey.length; pointer++) {
+            final int index = mPointerKey[pointer];
+            if (index >= 0) {
+                mPointerKey[pointer] = -1;
+                setKeyPressed(index, false);
+            }
+        }
+    }
+
+    /**
+     * There are no popups to dismiss, so back is never consumed here.
+     */
+    public boolean handleBack() {
+        return false;
     }
 
-    @Override
     protected boolean onLongPress(Key key) {
         if (key.codes[0] == Keyboard.KEYCODE_CANCEL) {
             getOnKeyboardActionListener().onKey(KEYCODE_OPTIONS, null);
             return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        if (mKeyboard == null) {
+            setMeasuredDimension(getPaddingLeft() + getPaddingRight(),
+                    getPaddingTop() + getPaddingBottom());
+            return;
+        }
+        int width = mKeyboard.getMinWidth() + getPaddingLeft() + getPaddingRight();
+        if (MeasureSpec.getSize(widthMeasureSpec) < width + 10) {
+            width = MeasureSpec.getSize(widthMeasureSpec);
+        }
+        setMeasuredDimension(width,
+                mKeyboard.getHeight() + getPaddingTop() + getPaddingBottom());
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mLayoutValid = false;
+        mIdleKeyboardValid = false;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        closing();
+        mIdleKeyboard.discardDisplayList();
+        mIdleKeyboardValid = false;
+    }
+
+    private void computeKeyLayout() {
+        final int count = mKeys.length;
+        if (mKeyLeft.length != count) {
+            mKeyLeft = new int[count];
+            mKeyTop = new int[count];
+            mKeyRight = new int[count];
+            mKeyBottom = new int[count];
+            mLabels = new CharSequence[count];
+            mLabelSize = new float[count];
+            mLabelY = new float[count];
+        }
+        final int paddingLeft = getPaddingLeft();
+        final int paddingTop = getPaddingTop();
+        final float scale = getKeyScale();
+        final boolean shifted = mKeyboard.isShifted();
+        for (int i = 0; i < count; i++) {
+            final Key key = mKeys[i];
+            final int left = paddingLeft + Math.round(key.x * scale);
+            final int top = paddingTop + key.y;
+            final int keyWidth = paddingLeft + Math.round((key.x + key.width) * scale) - left;
+            mKeyLeft[i] = left;
+            mKeyTop[i] = top;
+            mKeyRight[i] = left + keyWidth;
+            mKeyBottom[i] = top + key.height;
+
+            if (key.icon != null) {
+                final int iconWidth = Math.min(key.icon.getIntrinsicWidth(), keyWidth);
+                final int iconHeight = Math.min(key.icon.getIntrinsicHeight(), key.height);
+                final int iconLeft = left + (keyWidth - iconWidth) / 2;
+                final int iconTop = top + (key.height - iconHeight) / 2;
+                key.icon.setBounds(iconLeft, iconTop, iconLeft + iconWidth, iconTop + iconHeight);
+            } else if (key.label != null) {
+                final CharSequence label = shifted ? adjustCase(key.label) : key.label;
+                mLabels[i] = label;
+                float size = key.height * LABEL_RATIO;
+                mLabelPaint.setTextSize(size);
+                final float width = mLabelPaint.measureText(label, 0, label.length());
+                final float available = keyWidth - 2 * mKeyInset;
+                if (width > available && width > 0) {
+                    size *= available / width;
+                    mLabelPaint.setTextSize(size);
+                }
+                mLabelSize[i] = size;
+                mLabelY[i] = top + key.height / 2f
+                        - (mLabelPaint.ascent() + mLabelPaint.descent()) / 2;
+            }
+        }
+        mLayoutValid = true;
+    }
+
+    /**
+     * Returns how much narrower than its keyboard the view lays the keys out.  The
+     * keyboards span the whole display, and the input method window leaves out insets
+     * such as a navigation bar at the side.
+     */
+    float getKeyScale() {
+        final int available = getWidth() - getPaddingLeft() - getPaddingRight();
+        final int width = mKeyboard != null ? mKeyboard.getMinWidth() : 0;
+        return available > 0 && available < width ? available / (float) width : 1f;
+    }
+
+    /**
+     * Returns the index of the key at ({@code x}, {@code y}) in view coordinates, or
+     * -1 if there is none.
+     */
+    int keyIndexAt(float x, float y) {
+        if (mKeyboard == null) {
+            return -1;
+        }
+        return findKeyIndex((int) ((x - getPaddingLeft()) / getKeyScale()),
+                (int) y - getPaddingTop());
+    }
+
+    Key getKey(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Letter keys show their upper case while the keyboard is shifted.
+     */
+    private static CharSequence adjustCase(CharSequence label) {
+        if (label.length() < 3 && Character.isLowerCase(label.charAt(0))) {
+            return label.toString().toUpperCase();
+        }
+        return label;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final long start = System.nanoTime();
+        if (mKeyboard == null) {
+            return;
+        }
+        if (!mLayoutValid) {
+            computeKeyLayout();
+        }
+
+        boolean recorded = false;
+        if (canvas.isHardwareAccelerated()) {
+            if (!mIdleKeyboardValid) {
+                mIdleKeyboard.setPosition(0, 0, getWidth(), getHeight());
+                final RecordingCanvas recording =
+                        mIdleKeyboard.beginRecording(getWidth(), getHeight());
+                try {
+                    drawIdleKeyboard(recording);
+                } finally {
+                    mIdleKeyboard.endRecording();
+                }
+                mIdleKeyboardValid = true;
+                recorded = true;
+            }
+            canvas.drawRenderNode(mIdleKeyboard);
+        } else {
+            drawIdleKeyboard(canvas);
+        }
+
+        for (int pointer = 0; pointer < mPointerKey.length; pointer++) {
+            final int index = mPointerKey[pointer];
+            if (index >= 0) {
+                drawKey(canvas, index, mPressedKeyPaint);
+            }
+        }
+
+        if (mDrawListener != null) {
+            mDrawListener.onKeyboardDrawn(System.nanoTime() - start, recorded);
+        }
+    }
+
+    private void drawIdleKeyboard(Canvas canvas) {
+        canvas.drawColor(mBackgroundColor);
+        for (int i = 0; i < mKeys.length; i++) {
+            if (mKeys[i].width > 0) {
+                // A sticky key that is on, such as a locked shift, stays lit.
+                drawKey(canvas, i, mKeys[i].on ? mPressedKeyPaint : mKeyPaint);
+            }
+        }
+    }
+
+    private void drawKey(Canvas canvas, int index, Paint background) {
+        final Key key = mKeys[index];
+        canvas.drawRoundRect(mKeyLeft[index] + mKeyInset, mKeyTop[index] + mKeyInset,
+                mKeyRight[index] - mKeyInset, mKeyBottom[index] - mKeyInset,
+                mKeyRadius, mKeyRadius, background);
+        final Drawable icon = key.icon;
+        if (icon != null) {
+            icon.draw(canvas);
+        } else if (key.label != null) {
+            final CharSequence label = mLabels[index];
+            mLabelPaint.setTextSize(mLabelSize[index]);
+            canvas.drawText(label, 0, label.length(),
+                    (mKeyLeft[index] + mKeyRight[index]) / 2f, mLabelY[index], mLabelPaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (mKeyboard == null) {
+            return false;
+        }
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                final int index = event.getActionIndex();
+                onPointerDown(event.getPointerId(index), event.getX(index), event.getY(index));
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
+                onPointerUp(event.getPointerId(event.getActionIndex()));
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                closing();
+                break;
+        }
+        return true;
+    }
+
+    private void onPointerDown(int pointer, float x, float y) {
+        if (pointer < 0 || pointer >= mPointerKey.length) {
+            return;
+        }
+        final int index = keyIndexAt(x, y);
+        if (index < 0) {
+            return;
+        }
+        final Key key = mKeys[index];
+        mPointerKey[pointer] = index;
+        setKeyPressed(index, true);
+        mKeyboardActionListener.onPress(key.codes[0]);
+
+        // Only the latest key repeats or long-presses, as with KeyboardView.
+        cancelRepeat();
+        mRepeatPointer = pointer;
+        if (key.repeatable) {
+            sendKey(key);
+            postDelayed(mRepeat, REPEAT_START_DELAY);
+        } else {
+            postDelayed(mLongPress, ViewConfiguration.getLongPressTimeout());
+        }
+    }
+
+    private void onPointerUp(int pointer) {
+        if (pointer < 0 || pointer >= mPointerKey.length) {
+            return;
+        }
+        final int index = mPointerKey[pointer];
+        if (index < 0) {
+            return;
+        }
+        final Key key = mKeys[index];
+        boolean send = !key.repeatable;
+        if (pointer == mRepeatPointer) {
+            send &= !mLongPressed;
+            cancelRepeat();
+        }
+        mPointerKey[pointer] = -1;
+        setKeyPressed(index, false);
+        if (send) {
+            sendKey(key);
+        }
+        mKeyboardActionListener.onRelease(key.codes[0]);
+    }
+
+    private void sendKey(Key key) {
+        if (key.text != null) {
+            mKeyboardActionListener.onText(key.text);
+        } else {
+            mKeyboardActionListener.onKey(key.codes[0], key.codes);
+        }
+    }
+
+    private void cancelRepeat() {
+        removeCallbacks(mRepeat);
+        removeCallbacks(mLongPress);
+        mRepeatPointer = -1;
+        mLongPressed = false;
+    }
+
+    private int findKeyIndex(int x, int y) {
+        final int[] nearest = mKeyboard.getNearestKeys(x, y);
+        if (nearest == null) {
+            return -1;
+        }
+        for (int index : nearest) {
+            if (index < mKeys.length && mKeys[index].width > 0 && mKeys[index].isInside(x, y)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void setKeyPressed(int index, boolean pressed) {
+        if (pressed) {
+            mKeys[index].onPressed();
         } else {
-            return super.onLongPress(key);
+            mKeys[index].onReleased(false);
         }
+        // The frame is re-recorded, but the idle keyboard comes from the RenderNode and
+        // only the pressed keys are drawn again.
+        invalidate();
     }
 }
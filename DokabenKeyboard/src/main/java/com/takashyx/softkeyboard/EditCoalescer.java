@@ -0,0 +1,82 @@
+package com.takashyx.softkeyboard;
+
+import android.view.Choreographer;
+
+/**
+ * Gathers edits requested within one frame and runs a single flush for them on the
+ * next Choreographer frame, so fast flicking and key repeat cost one editor update per
+ * frame instead of one per key.
+ */
+final class EditCoalescer implements Choreographer.FrameCallback {
+
+    /** Where flushes are posted: the Choreographer, or a test running frames itself. */
+    interface Frames {
+        void post(Choreographer.FrameCallback callback);
+        void remove(Choreographer.FrameCallback callback);
+    }
+
+    static final Frames CHOREOGRAPHER = new Frames() {
+        @Override
+        public void post(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+
+        @Override
+        public void remove(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    };
+
+    private final Runnable mFlush;
+    private final Frames mFrames;
+    private boolean mScheduled;
+
+    EditCoalescer(Runnable flush) {
+        this(flush, CHOREOGRAPHER);
+    }
+
+    EditCoalescer(Runnable flush, Frames frames) {
+        mFlush = flush;
+        mFrames = frames;
+    }
+
+    /**
+     * Request a flush on the next frame.  Further requests before then are merged.
+     */
+    void schedule() {
+        if (!mScheduled) {
+            mScheduled = true;
+            mFrames.post(this);
+        }
+    }
+
+    boolean isPending() {
+        return mScheduled;
+    }
+
+    /**
+     * Run a pending flush now, before an edit that must observe it.
+     */
+    void flush() {
+        if (mScheduled) {
+            cancel();
+            mFlush.run();
+        }
+    }
+
+    /**
+     * Drop a pending flush whose edits have been superseded.
+     */
+    void cancel() {
+        if (mScheduled) {
+            mScheduled = false;
+            mFrames.remove(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        mFlush.run();
+    }
+}
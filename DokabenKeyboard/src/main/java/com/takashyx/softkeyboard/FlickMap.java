@@ -0,0 +1,157 @@
+package com.takashyx.softkeyboard;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Flick outputs of the kana keys: the built-in ones or a map imported by the user.
+ *
+ * Every map is a flat array laid out like {@link FlickTables#FLICK_OUTPUT}, so a
+ * lookup costs the same two array reads whichever map is in use.  Imported maps are
+ * compiled by {@link FlickMapCompiler} and stored in app storage as a small binary
+ * file: the magic "DKFM", a format version, a hash of the key layout, the number of
+ * outputs and the outputs themselves, all big-endian ints.  Loading reads the file
+ * in one go.
+ */
+final class FlickMap {
+
+    private static final String TAG = "FlickMap";
+
+    static final String FILE_NAME = "flick_map.bin";
+
+    private static final int MAGIC = 0x444B464D; // "DKFM"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+    /** Size of every valid map file, known before the file is read. */
+    private static final int FILE_SIZE = (HEADER_INTS + FlickTables.FLICK_OUTPUT.length) * 4;
+
+    static final FlickMap BUILT_IN = new FlickMap(FlickTables.FLICK_OUTPUT);
+
+    private final int[] mOutput;
+
+    private FlickMap(int[] output) {
+        mOutput = output;
+    }
+
+    /**
+     * Returns the character produced by flicking {@code keyCode} in {@code direction},
+     * or 0 for a hole.  keyCode must satisfy {@link KanaTables#isFlickKey}.
+     */
+    int output(int keyCode, int direction) {
+        return mOutput[FlickTables.FLICK_ROW[keyCode - FlickTables.BLOCK_START] + direction];
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Returns the imported map, or the built-in one if there is none or it cannot be
+     * used, e.g. because it was compiled for another key layout.
+     */
+    static FlickMap load(Context context) {
+        return load(getFile(context));
+    }
+
+    static FlickMap load(File file) {
+        if (!file.exists()) {
+            return BUILT_IN;
+        }
+        try {
+            // Anything larger is not a map, and must not be read into memory whole.
+            final long length = file.length();
+            if (length > FILE_SIZE) {
+                throw new IOException("Flick map is " + length + " bytes");
+            }
+            final byte[] data = new byte[(int) length];
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                in.readFully(data);
+            } finally {
+                in.close();
+            }
+            return new FlickMap(decode(data));
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring flick map " + file, e);
+            return BUILT_IN;
+        }
+    }
+
+    /**
+     * Store a map compiled by {@link FlickMapCompiler}; the keyboard picks it up the
+     * next time an editor is focused.
+     */
+    static void save(Context context, int[] output) throws IOException {
+        final File file = getFile(context);
+        final File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(encode(output));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Go back to the built-in map.
+     */
+    static void reset(Context context) {
+        getFile(context).delete();
+    }
+
+    /** Identifies the key rows the outputs belong to. */
+    private static int layoutHash() {
+        return Arrays.hashCode(FlickTables.FLICK_ROW);
+    }
+
+    static byte[] encode(int[] output) {
+        final ByteBuffer buffer = ByteBuffer.allocate((HEADER_INTS + output.length) * 4);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(layoutHash()).putInt(output.length);
+        buffer.asIntBuffer().put(output);
+        return buffer.array();
+    }
+
+    static int[] decode(byte[] data) throws IOException {
+        if (data.length < HEADER_INTS * 4 || data.length % 4 != 0) {
+            throw new IOException("Truncated flick map");
+        }
+        final IntBuffer buffer = ByteBuffer.wrap(data).asIntBuffer();
+        if (buffer.get() != MAGIC) {
+            throw new IOException("Not a flick map");
+        }
+        final int version = buffer.get();
+        if (version != VERSION) {
+            throw new IOException("Unsupported flick map version " + version);
+        }
+        if (buffer.get() != layoutHash()) {
+            throw new IOException("Flick map is for another key layout");
+        }
+        final int length = buffer.get();
+        if (length != FlickTables.FLICK_OUTPUT.length || buffer.remaining() != length) {
+            throw new IOException("Flick map has " + length + " outputs");
+        }
+        final int[] output = new int[length];
+        buffer.get(output);
+        try {
+            FlickMapCompiler.validate(output);
+        } catch (ParseException e) {
+            throw new IOException(e.getMessage());
+        }
+        return output;
+    }
+}
@@ -0,0 +1,143 @@
+package com.takashyx.softkeyboard;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.text.ParseException;
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * Compiles a user's flick map into the flat output array used by {@link FlickMap}.
+ *
+ * Two formats are accepted.  TSV uses the rows of src/main/flick/flick_table.tsv:
+ * the key's character, then center, left, up, right and down, with "-" for a hole.
+ * JSON maps each key to an array of the five outputs, with null or "" for a hole:
+ * <pre>{"ヤ": ["ヤ", "ャ", "ユ", "ュ", "ヨ"]}</pre>
+ * Keys left out keep their built-in outputs.  The result is checked the same way the
+ * build checks the built-in table.
+ */
+final class FlickMapCompiler {
+
+    private FlickMapCompiler() {
+    }
+
+    static int[] compile(String text) throws ParseException {
+        final int[] output = FlickTables.FLICK_OUTPUT.clone();
+        final BitSet keys = new BitSet();
+        if (text.trim().startsWith("{")) {
+            compileJson(text, output, keys);
+        } else {
+            compileTsv(text, output, keys);
+        }
+        validate(output);
+        return output;
+    }
+
+    private static void compileTsv(String text, int[] output, BitSet keys)
+            throws ParseException {
+        final String[] lines = text.split("\r?\n");
+        final String[] fields = new String[1 + KanaTables.DIRECTIONS];
+        for (int i = 0; i < lines.length; i++) {
+            final String line = lines[i];
+            final int lineNumber = i + 1;
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] split = line.split("\t");
+            if (split.length != fields.length) {
+                throw new ParseException("Line " + lineNumber + ": expected " + fields.length
+                        + " columns, got " + split.length, lineNumber);
+            }
+            for (int j = 0; j < split.length; j++) {
+                fields[j] = "-".equals(split[j]) ? "" : split[j];
+            }
+            setRow(output, keys, fields, lineNumber);
+        }
+    }
+
+    private static void compileJson(String text, int[] output, BitSet keys)
+            throws ParseException {
+        final String[] fields = new String[1 + KanaTables.DIRECTIONS];
+        try {
+            final JSONObject map = new JSONObject(text);
+            for (Iterator<String> it = map.keys(); it.hasNext(); ) {
+                final String key = it.next();
+                final JSONArray row = map.getJSONArray(key);
+                if (row.length() != KanaTables.DIRECTIONS) {
+                    throw new ParseException("Key " + key + ": expected "
+                            + KanaTables.DIRECTIONS + " outputs, got " + row.length(), 0);
+                }
+                fields[0] = key;
+                for (int d = 0; d < KanaTables.DIRECTIONS; d++) {
+                    fields[1 + d] = row.isNull(d) ? "" : row.getString(d);
+                }
+                setRow(output, keys, fields, 0);
+            }
+        } catch (JSONException e) {
+            throw new ParseException(e.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Store one row of fields: the key, then the output of each direction or "" for
+     * a hole.
+     */
+    private static void setRow(int[] output, BitSet keys, String[] fields, int line)
+            throws ParseException {
+        final int key = parseChar(fields[0], line);
+        if (!KanaTables.isFlickKey(key)) {
+            throw new ParseException(where(line) + fields[0] + " is not a flick key", line);
+        }
+        if (keys.get(key)) {
+            throw new ParseException(where(line) + "duplicate key " + fields[0], line);
+        }
+        keys.set(key);
+        final int row = FlickTables.FLICK_ROW[key - FlickTables.BLOCK_START];
+        for (int d = 0; d < KanaTables.DIRECTIONS; d++) {
+            final String field = fields[1 + d];
+            output[row + d] = field.isEmpty() ? 0 : parseChar(field, line);
+        }
+    }
+
+    private static int parseChar(String field, int line) throws ParseException {
+        if (field.length() != 1) {
+            throw new ParseException(where(line) + "not a single character: " + field, line);
+        }
+        return field.charAt(0);
+    }
+
+    private static String where(int line) {
+        return line > 0 ? "Line " + line + ": " : "";
+    }
+
+    /**
+     * Check a whole output array: every key has a center output, every output is a
+     * BMP character and not half of a surrogate pair, and no character is produced by
+     * two flicks.
+     */
+    static void validate(int[] output) throws ParseException {
+        final BitSet produced = new BitSet(Character.MAX_VALUE + 1);
+        for (int row = 0; row < output.length; row += KanaTables.DIRECTIONS) {
+            if (output[row] == 0) {
+                throw new ParseException("The center of a key cannot be a hole", 0);
+            }
+            for (int d = 0; d < KanaTables.DIRECTIONS; d++) {
+                final int c = output[row + d];
+                if (c == 0) {
+                    continue;
+                }
+                if (c < 0 || c > Character.MAX_VALUE
+                        || (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE)) {
+                    throw new ParseException("Not a character: 0x" + Integer.toHexString(c), 0);
+                }
+                if (produced.get(c)) {
+                    throw new ParseException(
+                            "Character " + (char) c + " is produced by two flicks", 0);
+                }
+                produced.set(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Classifies one pointer's flick from its down, move and up positions.
+ *
+ * A direction is taken once the pointer has moved {@link #setKeySize threshold} pixels
+ * from where it went down, however slowly; no velocity is required.  Hysteresis keeps
+ * the direction from flickering near the edges: going back to the center needs the
+ * pointer to come well inside the threshold, and switching to the other axis needs
+ * that axis to clearly dominate.  Nothing is allocated per event.
+ */
+final class FlickRecognizer {
+
+    /** Flick distance as a fraction of the smaller side of a key. */
+    private static final float THRESHOLD_RATIO = 0.35f;
+    /** Fraction of the threshold the pointer must come back inside to return to center. */
+    private static final float CENTER_RATIO = 0.6f;
+    /** How much the other axis must dominate before a direction switches axis. */
+    private static final float AXIS_BIAS = 1.3f;
+
+    /** Threshold used until a key size is known, in pixels. */
+    private static final float DEFAULT_THRESHOLD = 24f;
+
+    private float mThreshold = DEFAULT_THRESHOLD;
+    private float mDownX;
+    private float mDownY;
+    private int mDirection = KanaTables.CENTER;
+    private boolean mTracking;
+
+    /**
+     * Scale the flick distance to the size of the key being pressed.
+     */
+    void setKeySize(int width, int height) {
+        final int size = Math.min(width, height);
+        mThreshold = size > 0 ? size * THRESHOLD_RATIO : DEFAULT_THRESHOLD;
+    }
+
+    void down(float x, float y) {
+        mDownX = x;
+        mDownY = y;
+        mDirection = KanaTables.CENTER;
+        mTracking = true;
+    }
+
+    /**
+     * Returns the direction after the pointer moved to (x, y).
+     */
+    int move(float x, float y) {
+        if (mTracking) {
+            mDirection = classify(x - mDownX, y - mDownY);
+        }
+        return mDirection;
+    }
+
+    /**
+     * Returns the final direction of a flick released at (x, y).
+     */
+    int up(float x, float y) {
+        final int direction = move(x, y);
+        mTracking = false;
+        return direction;
+    }
+
+    void cancel() {
+        mDirection = KanaTables.CENTER;
+        mTracking = false;
+    }
+
+    boolean isTracking() {
+        return mTracking;
+    }
+
+    int getDirection() {
+        return mDirection;
+    }
+
+    private int classify(float dx, float dy) {
+        final float distanceSquared = dx * dx + dy * dy;
+        if (mDirection == KanaTables.CENTER) {
+            if (distanceSquared < mThreshold * mThreshold) {
+                return KanaTables.CENTER;
+            }
+            return dominant(dx, dy, 1f);
+        }
+
+        final float center = mThreshold * CENTER_RATIO;
+        if (distanceSquared < center * center) {
+            return KanaTables.CENTER;
+        }
+        // Staying on the current axis (or reversing along it) needs no bias.
+        final boolean horizontal = mDirection == KanaTables.LEFT
+                || mDirection == KanaTables.RIGHT;
+        return horizontal ? dominant(dx, dy, AXIS_BIAS) : dominant(dx, dy, 1f / AXIS_BIAS);
+    }
+
+    /**
+     * Returns the direction of (dx, dy), counting it as vertical only when
+     * |dy| > |dx| * verticalBias.
+     */
+    private static int dominant(float dx, float dy, float verticalBias) {
+        if (Math.abs(dy) > Math.abs(dx) * verticalBias) {
+            return dy < 0 ? KanaTables.UP : KanaTables.DOWN;
+        }
+        return dx < 0 ? KanaTables.LEFT : KanaTables.RIGHT;
+    }
+}
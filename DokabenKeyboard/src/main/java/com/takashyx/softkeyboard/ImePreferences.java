@@ -16,15 +16,37 @@
 
 package com.takashyx.softkeyboard;
 
+import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.Preference;
 import android.preference.PreferenceActivity;
+import android.preference.PreferenceScreen;
+import android.widget.Toast;
 import com.android.inputmethodcommon.InputMethodSettingsFragment;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+
 /**
  * Displays the IME preferences inside the input method setting.
  */
 public class ImePreferences extends PreferenceActivity {
+    private static final String KEY_IMPORT_FLICK_MAP = "import_flick_map";
+    private static final String KEY_RESET_FLICK_MAP = "reset_flick_map";
+    private static final int REQUEST_IMPORT_FLICK_MAP = 1;
+    private static final String[] FLICK_MAP_MIME_TYPES = {
+            "text/tab-separated-values", "text/plain", "application/json",
+    };
+    /** Larger files cannot be flick maps; they are refused before being parsed. */
+    private static final int MAX_FLICK_MAP_SIZE = 64 * 1024;
+
     @Override
     public Intent getIntent() {
         final Intent modIntent = new Intent(super.getIntent());
@@ -56,5 +78,83 @@ public class ImePreferences extends PreferenceActivity {
             // Load the preferences from an XML resource
             addPreferencesFromResource(R.xml.ime_preferences);
         }
+
+        @Override
+        public boolean onPreferenceTreeClick(PreferenceScreen screen, Preference preference) {
+            if (KEY_IMPORT_FLICK_MAP.equals(preference.getKey())) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("*/*");
+                intent.putExtra(Intent.EXTRA_MIME_TYPES, FLICK_MAP_MIME_TYPES);
+                startActivityForResult(intent, REQUEST_IMPORT_FLICK_MAP);
+                return true;
+            } else if (KEY_RESET_FLICK_MAP.equals(preference.getKey())) {
+                FlickMap.reset(getActivity());
+                Toast.makeText(getActivity(), R.string.flick_map_reset, Toast.LENGTH_SHORT).show();
+                return true;
+            }
+            return super.onPreferenceTreeClick(screen, preference);
+        }
+
+        @Override
+        public void onActivityResult(int requestCode, int resultCode, Intent data) {
+            if (requestCode != REQUEST_IMPORT_FLICK_MAP) {
+                super.onActivityResult(requestCode, resultCode, data);
+                return;
+            }
+            if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+                return;
+            }
+            final Context context = getActivity().getApplicationContext();
+            final Uri uri = data.getData();
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final String error = importFlickMap(context, uri);
+                    // The fragment may be gone by now; the toast only needs the app.
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            final String message = error == null
+                                    ? context.getString(R.string.flick_map_imported)
+                                    : context.getString(R.string.flick_map_import_failed, error);
+                            Toast.makeText(context, message, Toast.LENGTH_LONG).show();
+                        }
+                    });
+                }
+            }, "ImportFlickMap").start();
+        }
+    }
+
+    /**
+     * Compile the flick map at {@code uri} and store it for the keyboard.  Returns null
+     * on success, or what went wrong.
+     */
+    static String importFlickMap(Context context, Uri uri) {
+        try {
+            InputStream in = context.getContentResolver().openInputStream(uri);
+            if (in == null) {
+                return uri.toString();
+            }
+            final ByteArrayOutputStream text = new ByteArrayOutputStream();
+            try {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    text.write(buffer, 0, read);
+                    if (text.size() > MAX_FLICK_MAP_SIZE) {
+                        return "file too large";
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            FlickMap.save(context, FlickMapCompiler.compile(text.toString("UTF-8")));
+            return null;
+        } catch (IOException e) {
+            return e.getMessage();
+        } catch (ParseException e) {
+            return e.getMessage();
+        }
     }
 }
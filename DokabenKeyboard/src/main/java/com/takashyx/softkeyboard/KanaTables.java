@@ -0,0 +1,103 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * Flick and multi-tap tables for the kana keyboard.
+ *
+ * These used to be boxed HashMaps filled in SoftKeyboard.onCreate on every service
+ * start.  They are plain arrays indexed by {@code c - BLOCK_START} now.  The flick
+ * outputs are compiled from src/main/flick/flick_table.tsv into {@link FlickTables}
+ * at build time, and looked up through a {@link FlickMap}.
+ */
+final class KanaTables {
+
+    static final int BLOCK_START = 0x30A0;
+    static final int BLOCK_END = 0x30FF;
+
+    /* flick directions, as reported by OnSwipeTouchListener */
+    static final int CENTER = 0;
+    static final int LEFT = 1;
+    static final int UP = 2;
+    static final int RIGHT = 3;
+    static final int DOWN = 4;
+    static final int DIRECTIONS = FlickTables.DIRECTIONS;
+
+    /** Rings of the dakuten key: dakuten, handakuten and small forms. */
+    static final CycleTable DAKUTEN = new CycleTable(
+            new int[] {'カ', 'ガ'},
+            new int[] {'キ', 'ギ'},
+            new int[] {'ク', 'グ'},
+            new int[] {'ケ', 'ゲ'},
+            new int[] {'コ', 'ゴ'},
+
+            new int[] {'サ', 'ザ'},
+            new int[] {'シ', 'ジ'},
+            new int[] {'ス', 'ズ'},
+            new int[] {'セ', 'ゼ'},
+            new int[] {'ソ', 'ゾ'},
+
+            new int[] {'タ', 'ダ'},
+            new int[] {'チ', 'ヂ'},
+            new int[] {'ツ', 'ッ', 'ヅ'},
+            new int[] {'テ', 'デ'},
+            new int[] {'ト', 'ド'},
+
+            new int[] {'ハ', 'バ', 'パ'},
+            new int[] {'ヒ', 'ビ', 'ピ'},
+            new int[] {'フ', 'ブ', 'プ'},
+            new int[] {'ヘ', 'ベ', 'ペ'},
+            new int[] {'ホ', 'ボ', 'ポ'},
+
+            new int[] {'ア', 'ァ'},
+            new int[] {'イ', 'ィ'},
+            new int[] {'ウ', 'ゥ'},
+            new int[] {'エ', 'ェ'},
+            new int[] {'オ', 'ォ'},
+            new int[] {'ヤ', 'ャ'},
+            new int[] {'ユ', 'ュ'},
+            new int[] {'ヨ', 'ョ'});
+
+    /** Ring of the kigou key.  SoftKeyboard never cycles ー back to ？. */
+    static final CycleTable KIGOU = new CycleTable(
+            new int[] {'？', '！', 'ー'});
+
+    private KanaTables() {
+    }
+
+    static boolean isFlickKey(int keyCode) {
+        return keyCode >= BLOCK_START && keyCode <= BLOCK_END
+                && FlickTables.FLICK_ROW[keyCode - BLOCK_START] >= 0;
+    }
+
+    /**
+     * Returns the hiragana of a katakana, or {@code c} itself if it has none, such as
+     * ー or any non-kana.
+     */
+    static int toHiragana(int c) {
+        final int hiragana = c - DokabenConverter.KANA_OFFSET;
+        return DokabenConverter.isHiragana(hiragana) ? hiragana : c;
+    }
+
+    /**
+     * Returns {@code s} with every katakana that has a hiragana shifted into it.
+     */
+    static String toHiragana(String s) {
+        final char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) toHiragana(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the character after {@code c} in its ring of {@code table}, or 0 if c is
+     * in no ring.  The rings are declared in katakana; a hiragana cycles through the
+     * hiragana of its katakana ring.
+     */
+    static int nextKana(CycleTable table, int c) {
+        if (!DokabenConverter.isHiragana(c)) {
+            return table.next(c);
+        }
+        final int next = table.next(c + DokabenConverter.KANA_OFFSET);
+        return next == 0 ? 0 : toHiragana(next);
+    }
+}
@@ -0,0 +1,222 @@
+package com.takashyx.softkeyboard;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Katakana words predicted from the kana being composed.
+ *
+ * The words are compiled from src/main/dict/katakana_words.tsv by the
+ * generateDictionary task into a double-array trie, shipped as the uncompressed asset
+ * {@link #ASSET_NAME} and mapped into memory, so the dictionary never lives on the
+ * Java heap.  The file holds big-endian ints: the magic "DKDC", a format version, the
+ * number of states, words and chars, then the BASE, CHECK and BEST arrays, the word
+ * offsets and finally the words as UTF-16 chars.
+ *
+ * The child of state s under code c is BASE[s] + c if its CHECK is s.  Codes are
+ * katakana minus {@link #BLOCK_START}; code 0 leads to the end state of a word, whose
+ * BASE is -1.  Word ids go by frequency, most frequent first, and BEST[s] is the
+ * smallest word id below s, so the top completions come out of a best-first walk
+ * that only opens the states they are under.
+ */
+final class KatakanaDictionary {
+
+    static final String ASSET_NAME = "katakana.dic";
+
+    private static final int MAGIC = 0x444B4443; // "DKDC"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 5;
+
+    private static final int BLOCK_START = DokabenConverter.BLOCK_START;
+    private static final int ALPHABET = 0x60;
+    private static final int END = 0;
+    private static final int ROOT = 0;
+
+    private final int mStateCount;
+    private final int mWordCount;
+    private final IntBuffer mBase;
+    private final IntBuffer mCheck;
+    private final IntBuffer mBest;
+    private final IntBuffer mWordOffset;
+    private final CharBuffer mChars;
+
+    /* min-heap of (best word id << 32 | state), reused by every lookup */
+    private long[] mHeap = new long[64];
+    private int mHeapSize;
+    private char[] mWord = new char[16];
+
+    KatakanaDictionary(ByteBuffer buffer) throws IOException {
+        final IntBuffer header = buffer.asIntBuffer();
+        if (header.remaining() < HEADER_INTS || header.get(0) != MAGIC) {
+            throw new IOException("Not a katakana dictionary");
+        }
+        if (header.get(1) != VERSION) {
+            throw new IOException("Unsupported dictionary version " + header.get(1));
+        }
+        mStateCount = header.get(2);
+        mWordCount = header.get(3);
+        final int charCount = header.get(4);
+        final long ints = HEADER_INTS + 3L * mStateCount + mWordCount + 1;
+        if (mStateCount <= 0 || mWordCount < 0 || charCount < 0
+                || ints * 4 + charCount * 2L != buffer.remaining()) {
+            throw new IOException("Truncated katakana dictionary");
+        }
+        int offset = HEADER_INTS;
+        mBase = slice(header, offset, mStateCount);
+        offset += mStateCount;
+        mCheck = slice(header, offset, mStateCount);
+        offset += mStateCount;
+        mBest = slice(header, offset, mStateCount);
+        offset += mStateCount;
+        mWordOffset = slice(header, offset, mWordCount + 1);
+        offset += mWordCount + 1;
+        final ByteBuffer chars = buffer.duplicate();
+        chars.position(chars.position() + offset * 4);
+        mChars = chars.slice().order(buffer.order()).asCharBuffer();
+    }
+
+    private static IntBuffer slice(IntBuffer buffer, int offset, int length) {
+        final IntBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Map the dictionary asset.  The mapping outlives the file, which is closed here.
+     */
+    static KatakanaDictionary open(Context context) throws IOException {
+        final AssetFileDescriptor fd = context.getAssets().openFd(ASSET_NAME);
+        try {
+            final FileInputStream in = fd.createInputStream();
+            try {
+                return new KatakanaDictionary(in.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength()));
+            } finally {
+                in.close();
+            }
+        } finally {
+            fd.close();
+        }
+    }
+
+    int getWordCount() {
+        return mWordCount;
+    }
+
+    /**
+     * Append up to {@code max} words starting with {@code prefix} to {@code out}, most
+     * frequent first.  The prefix itself is left out.  Hiragana in the prefix are
+     * read as their katakana.  Returns the number of words appended.
+     */
+    int predict(CharSequence prefix, int max, List<String> out) {
+        int state = ROOT;
+        for (int i = 0; i < prefix.length() && state >= 0; i++) {
+            int c = prefix.charAt(i);
+            if (DokabenConverter.isHiragana(c)) {
+                c += DokabenConverter.KANA_OFFSET;
+            }
+            final int code = c - BLOCK_START;
+            if (code <= END || code >= ALPHABET) {
+                return 0;
+            }
+            state = child(state, code);
+        }
+        if (state < 0 || max <= 0) {
+            return 0;
+        }
+        final int self = child(state, END);
+
+        int added = 0;
+        mHeapSize = 0;
+        push(state);
+        while (mHeapSize > 0 && added < max) {
+            final long entry = pop();
+            final int next = (int) entry;
+            final int base = mBase.get(next);
+            if (base < 0) {
+                if (next != self) {
+                    out.add(word((int) (entry >>> 32)));
+                    added++;
+                }
+                continue;
+            }
+            final int end = Math.min(base + ALPHABET, mStateCount);
+            for (int t = base; t < end; t++) {
+                if (mCheck.get(t) == next) {
+                    push(t);
+                }
+            }
+        }
+        return added;
+    }
+
+    private int child(int state, int code) {
+        final int t = mBase.get(state) + code;
+        return t > 0 && t < mStateCount && mCheck.get(t) == state ? t : -1;
+    }
+
+    private String word(int id) {
+        final int start = mWordOffset.get(id);
+        final int length = mWordOffset.get(id + 1) - start;
+        if (mWord.length < length) {
+            mWord = new char[length];
+        }
+        for (int i = 0; i < length; i++) {
+            mWord[i] = mChars.get(start + i);
+        }
+        return new String(mWord, 0, length);
+    }
+
+    private void push(int state) {
+        if (mHeapSize == mHeap.length) {
+            final long[] heap = new long[mHeapSize * 2];
+            System.arraycopy(mHeap, 0, heap, 0, mHeapSize);
+            mHeap = heap;
+        }
+        final long entry = ((long) mBest.get(state) << 32) | state;
+        int i = mHeapSize++;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (mHeap[parent] <= entry) {
+                break;
+            }
+            mHeap[i] = mHeap[parent];
+            i = parent;
+        }
+        mHeap[i] = entry;
+    }
+
+    /**
+     * Remove and return the entry with the best word.
+     */
+    private long pop() {
+        final long top = mHeap[0];
+        final long last = mHeap[--mHeapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= mHeapSize) {
+                break;
+            }
+            if (child + 1 < mHeapSize && mHeap[child + 1] < mHeap[child]) {
+                child++;
+            }
+            if (mHeap[child] >= last) {
+                break;
+            }
+            mHeap[i] = mHeap[child];
+            i = child;
+        }
+        mHeap[i] = last;
+        return top;
+    }
+}
@@ -0,0 +1,128 @@
+package com.takashyx.softkeyboard;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+
+/**
+ * Ready-to-use keyboards keyed by display size, orientation and layout.
+ *
+ * Each layout is parsed from XML once per orientation, so focusing a field, rotating
+ * the device or switching between the kana, alphabet, number and symbol layouts only
+ * looks one up.  The enter key style and the language switch key are set on the
+ * keyboard when it is shown, as they only change two keys.  Keyboards span the whole
+ * display, whose sides are known for both orientations before a rotation; the view
+ * scales them to the input method window, which can be narrower.  {@link #prepare}
+ * builds every layout for both orientations on a background thread; a keyboard asked
+ * for before it is ready is built on the spot.
+ */
+final class KeyboardCache {
+
+    private static final String TAG = "KeyboardCache";
+
+    /* layouts, in the order the mode change key cycles through them */
+    static final int LAYOUT_KANA = 0;
+    static final int LAYOUT_ALPHABET = 1;
+    static final int LAYOUT_NUMBERS = 2;
+    static final int LAYOUT_SYMBOLS = 3;
+    static final int LAYOUT_SYMBOLS_SHIFT = 4;
+
+    private static final int[] LAYOUT_XML = {
+            R.xml.key_layout,
+            R.xml.qwerty,
+            R.xml.numbers,
+            R.xml.symbols,
+            R.xml.symbols_shift,
+    };
+
+    static final int LAYOUTS = LAYOUT_XML.length;
+
+    private final Context mContext;
+
+    private final VariantCache<DokabenFlingKeyboard> mKeyboards;
+
+    KeyboardCache(Context context) {
+        mContext = context;
+        mKeyboards = new VariantCache<DokabenFlingKeyboard>(
+                new VariantCache.Builder<DokabenFlingKeyboard>() {
+                    @Override
+                    public DokabenFlingKeyboard build(long key) {
+                        return KeyboardCache.this.build(key);
+                    }
+                });
+    }
+
+    /**
+     * Returns the key of {@code layout} on a display with the given long and short
+     * sides in {@code orientation}.
+     */
+    static long key(int longSide, int shortSide, int orientation, int layout) {
+        final boolean landscape = orientation == Configuration.ORIENTATION_LANDSCAPE;
+        final long width = landscape ? longSide : shortSide;
+        final long height = landscape ? shortSide : longSide;
+        return (height << 32) | (width << 16) | (orientation << 8) | layout;
+    }
+
+    /**
+     * Returns the keys of every layout on a display with the given sides, those for
+     * {@code orientation} first and then those for the other one.
+     */
+    static long[] keys(int longSide, int shortSide, int orientation) {
+        final int otherOrientation = orientation == Configuration.ORIENTATION_LANDSCAPE
+                ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
+        final long[] keys = new long[2 * LAYOUTS];
+        for (int layout = 0; layout < LAYOUTS; layout++) {
+            keys[layout] = key(longSide, shortSide, orientation, layout);
+            keys[LAYOUTS + layout] = key(longSide, shortSide, otherOrientation, layout);
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the keyboard of {@code layout} (one of the LAYOUT_ constants) on a
+     * display with the given long and short sides in {@code orientation}.  It is
+     * shared, so its enter key and language switch key are whatever was last set.
+     */
+    DokabenFlingKeyboard get(int longSide, int shortSide, int orientation, int layout) {
+        final long key = key(longSide, shortSide, orientation, layout);
+        if (SoftKeyboard.DEBUG && mKeyboards.peek(key) == null) {
+            Log.i(TAG, "building keyboard variant 0x" + Long.toHexString(key)
+                    + " on the main thread");
+        }
+        return mKeyboards.get(key);
+    }
+
+    /**
+     * Start building every layout for a display with the given sides in both
+     * orientations, on a background thread.  Keyboards for other displays are dropped.
+     */
+    void prepare(int longSide, int shortSide, int orientation) {
+        mKeyboards.warm(keys(longSide, shortSide, orientation));
+    }
+
+    private DokabenFlingKeyboard build(long key) {
+        final int height = (int) (key >>> 32);
+        final int width = (int) (key >>> 16) & 0xffff;
+        final int orientation = (int) (key >>> 8) & 0xff;
+        final int layout = (int) key & 0xff;
+
+        // Resources such as the key height depend on the orientation.
+        Context context = mContext;
+        final Configuration current = mContext.getResources().getConfiguration();
+        if (current.orientation != orientation) {
+            final Configuration config = new Configuration(current);
+            config.orientation = orientation;
+            context = mContext.createConfigurationContext(config);
+        }
+
+        final DokabenFlingKeyboard keyboard =
+                new DokabenFlingKeyboard(context, LAYOUT_XML[layout], 0, width, height);
+        // Most editors take the default, so its icon is loaded here rather than on show.
+        keyboard.setEnterStyle(context.getResources(), DokabenFlingKeyboard.ENTER_DEFAULT);
+        return keyboard;
+    }
+
+    void close() {
+        mKeyboards.close();
+    }
+}
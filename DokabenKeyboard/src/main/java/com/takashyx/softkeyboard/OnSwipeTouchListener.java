@@ -1,94 +1,206 @@
 package com.takashyx.softkeyboard;
 
-import android.content.Context;
-import android.inputmethodservice.KeyboardView;
-import android.util.Log;
-import android.view.GestureDetector;
-import android.view.GestureDetector.SimpleOnGestureListener;
+import android.inputmethodservice.Keyboard;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnTouchListener;
 
 /**
  * Created by takashyx on 2017/06/30.
+ *
+ * Tracks flicks on the kana keys, one per pointer, so a second finger can land before
+ * the first one lifts.  Pending flicks are kept in press order and committed in that
+ * order once released, whatever order the fingers lift in.  The listener sees each
+ * event before the keyboard view does, and lets it through so the other keys keep
+ * working.
  */
 
 public class OnSwipeTouchListener implements OnTouchListener {
 
-    // 最低スワイプ距離
-    private static final int SWIPE_MIN_DISTANCE = 10;
-    // 最低スワイプスピード
-    private static final int SWIPE_THRESHOLD_VELOCITY = 10;
+    /** Pointer ids at or above this are not tracked. */
+    static final int MAX_POINTERS = 10;
 
-    private final GestureDetector gestureDetector;
+    private final FlickRecognizer[] mRecognizers = new FlickRecognizer[MAX_POINTERS];
 
-    public OnSwipeTouchListener(Context ctx) {
-        gestureDetector = new GestureDetector(ctx, new GestureListener());
+    /* pending flicks in press order; pointer is -1 once released */
+    private final int[] mPendingKey = new int[MAX_POINTERS];
+    private final int[] mPendingDirection = new int[MAX_POINTERS];
+    private final int[] mPendingPointer = new int[MAX_POINTERS];
+    private int mPendingCount;
+
+    private FlickMap mFlickMap = FlickMap.BUILT_IN;
+
+    public OnSwipeTouchListener() {
+        for (int i = 0; i < MAX_POINTERS; i++) {
+            mRecognizers[i] = new FlickRecognizer();
+        }
     }
 
     @Override
     public boolean onTouch(View v, MotionEvent event) {
-        return gestureDetector.onTouchEvent(event);
+        final int action = event.getActionMasked();
+        switch (action) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN: {
+                final int index = event.getActionIndex();
+                press(v, event.getPointerId(index), event.getX(index), event.getY(index));
+                break;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                boolean changed = false;
+                for (int i = 0; i < mPendingCount; i++) {
+                    final int pointer = mPendingPointer[i];
+                    final int index = pointer < 0 ? -1 : event.findPointerIndex(pointer);
+                    if (index >= 0) {
+                        final int direction =
+                                mRecognizers[pointer].move(event.getX(index), event.getY(index));
+                        if (direction != mPendingDirection[i]) {
+                            mPendingDirection[i] = direction;
+                            changed = true;
+                        }
+                    }
+                }
+                if (changed) {
+                    onFlickChanged();
+                }
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP: {
+                final int index = event.getActionIndex();
+                release(event.getPointerId(index), event.getX(index), event.getY(index));
+                break;
+            }
+            case MotionEvent.ACTION_CANCEL:
+                cancel();
+                break;
+        }
+        // The keyboard view still handles the event itself.
+        return false;
     }
 
-    private final class GestureListener extends SimpleOnGestureListener {
+    private void press(View v, int pointer, float x, float y) {
+        if (!(v instanceof DokabenFlingKeyboardView)) {
+            return;
+        }
+        final DokabenFlingKeyboardView view = (DokabenFlingKeyboardView) v;
+        final int index = view.keyIndexAt(x, y);
+        if (index >= 0) {
+            // Flicks are tracked in view coordinates, where keys can be narrower.
+            final Keyboard.Key key = view.getKey(index);
+            press(pointer, key.codes[0], Math.round(key.width * view.getKeyScale()),
+                    key.height, x, y);
+        }
+    }
 
-        private static final int SWIPE_THRESHOLD = 10;
-        private static final int SWIPE_VELOCITY_THRESHOLD = 10;
+    void press(int pointer, int keyCode, int keyWidth, int keyHeight, float x, float y) {
+        if (pointer < 0 || pointer >= MAX_POINTERS || mPendingCount == MAX_POINTERS
+                || !KanaTables.isFlickKey(keyCode)) {
+            return;
+        }
+        final FlickRecognizer recognizer = mRecognizers[pointer];
+        recognizer.setKeySize(keyWidth, keyHeight);
+        recognizer.down(x, y);
+        mPendingKey[mPendingCount] = keyCode;
+        mPendingDirection[mPendingCount] = KanaTables.CENTER;
+        mPendingPointer[mPendingCount] = pointer;
+        mPendingCount++;
+        onFlickChanged();
+    }
 
-        /* do not override onDown to handle key
-        @Override
-        public boolean onDown(MotionEvent e) {
-            return true;
+    void release(int pointer, float x, float y) {
+        int i = indexOf(pointer);
+        if (i < 0) {
+            return;
         }
-        */
-
-        @Override
-        public boolean onFling(MotionEvent e1, MotionEvent e2, float velocityX, float velocityY) {
-            boolean result = false;
-            try {
-
-                // 移動距離・スピードを出力
-                float distance_x = Math.abs((e1.getX() - e2.getX()));
-                float velocity_x = Math.abs(velocityX);
-
-                // 開始位置から終了位置の移動距離が指定値より大きい
-                // X軸の移動速度が指定値より大きい
-                if(Math.abs(velocityX) > Math.abs(velocityY))
-                {
-                    if (e1.getX() - e2.getX() > SWIPE_MIN_DISTANCE && Math.abs(velocityX) > SWIPE_THRESHOLD_VELOCITY) {
-                        onKeySwipeLeft();
-                    }
-                    // 終了位置から開始位置の移動距離が指定値より大きい
-                    // X軸の移動速度が指定値より大きい
-                    else if (e2.getX() - e1.getX() > SWIPE_MIN_DISTANCE && Math.abs(velocityX) > SWIPE_THRESHOLD_VELOCITY) {
-                        onKeySwipeRight();
-                    }
-                }
-                else
-                {
-                    if (e1.getY() - e2.getY() > SWIPE_MIN_DISTANCE && Math.abs(velocityY) > SWIPE_THRESHOLD_VELOCITY) {
-                        onKeySwipeUp();
+        final int direction = mRecognizers[pointer].up(x, y);
+        if (direction != mPendingDirection[i]) {
+            mPendingDirection[i] = direction;
+            onFlickChanged();
+        }
+        mPendingPointer[i] = -1;
 
-                    }
-                    // 終了位置から開始位置の移動距離が指定値より大きい
-                    // X軸の移動速度が指定値より大きい
-                    else if (e2.getY() - e1.getY() > SWIPE_MIN_DISTANCE && Math.abs(velocityY) > SWIPE_THRESHOLD_VELOCITY) {
-                        onKeySwipeDown();
-                    }
-                }
+        // Commit every released flick that no earlier press is waiting on.
+        int committed = 0;
+        while (committed < mPendingCount && mPendingPointer[committed] < 0) {
+            onFlickCommit(mPendingKey[committed], mPendingDirection[committed]);
+            committed++;
+        }
+        if (committed > 0) {
+            final int remaining = mPendingCount - committed;
+            System.arraycopy(mPendingKey, committed, mPendingKey, 0, remaining);
+            System.arraycopy(mPendingDirection, committed, mPendingDirection, 0, remaining);
+            System.arraycopy(mPendingPointer, committed, mPendingPointer, 0, remaining);
+            mPendingCount = remaining;
+        }
+    }
+
+    /**
+     * Drop every pending flick without committing it.
+     */
+    void cancel() {
+        if (mPendingCount == 0) {
+            return;
+        }
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPendingPointer[i] >= 0) {
+                mRecognizers[mPendingPointer[i]].cancel();
             }
-            catch (Exception exception) {
-                exception.printStackTrace();
+        }
+        mPendingCount = 0;
+        onFlickChanged();
+    }
+
+    /**
+     * Commit every pending flick now, in press order, with the direction it has so
+     * far.  Their pointers are no longer tracked, so lifting them commits nothing.
+     * Used before another key edits the text, so it acts on the text as shown.
+     */
+    void commitPending() {
+        final int count = mPendingCount;
+        mPendingCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (mPendingPointer[i] >= 0) {
+                mRecognizers[mPendingPointer[i]].cancel();
             }
-            return result;
+            onFlickCommit(mPendingKey[i], mPendingDirection[i]);
         }
     }
-    public void onKeySwipeRight() {};
 
-    public void onKeySwipeLeft() {};
+    private int indexOf(int pointer) {
+        for (int i = 0; i < mPendingCount; i++) {
+            if (mPendingPointer[i] == pointer) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-    public void onKeySwipeUp() {};
+    void setFlickMap(FlickMap flickMap) {
+        mFlickMap = flickMap;
+    }
+
+    /** Number of flicks pressed and not yet committed. */
+    int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * Returns the current output of the i-th pending flick in press order, or 0 for a
+     * hole.
+     */
+    int getPendingOutput(int i) {
+        return mFlickMap.output(mPendingKey[i], mPendingDirection[i]);
+    }
 
-    public void onKeySwipeDown() {};
-}
\ No newline at end of file
+    /**
+     * Called when a flick is pressed, changes direction or is dropped.
+     */
+    public void onFlickChanged() {};
+
+    /**
+     * Called in press order once a flick and all flicks pressed before it are released,
+     * with its key code and one of the direction constants in {@link KanaTables}.
+     */
+    public void onFlickCommit(int keyCode, int direction) {};
+}
@@ -0,0 +1,152 @@
+package com.takashyx.softkeyboard;
+
+import android.app.Activity;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.ProgressBar;
+import android.widget.Toast;
+
+import java.nio.CharBuffer;
+
+/**
+ * Converts text selected in any app into dokaben shortcodes via
+ * {@link Intent#ACTION_PROCESS_TEXT}.
+ *
+ * Shortcodes are about 12 times longer than the katakana they replace, so the selection
+ * is converted on a background thread one {@link CharBuffer} window at a time, straight
+ * into a single output buffer whose size is capped.
+ */
+public class ProcessTextActivity extends Activity {
+
+    /* chars converted between progress updates and cancellation checks */
+    private static final int WINDOW = 4096;
+
+    /*
+     * The result goes back to the calling app through a binder transaction, which is
+     * limited to 1MB, so anything longer cannot be delivered and is abandoned early.
+     */
+    private static final int MAX_RESULT_LENGTH = 256 * 1024;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private ProgressBar mProgress;
+    private Thread mWorker;
+    private volatile boolean mCancelled;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        final Intent intent = getIntent();
+        final CharSequence text = intent.getCharSequenceExtra(Intent.EXTRA_PROCESS_TEXT);
+        if (text == null || text.length() == 0) {
+            setResult(RESULT_CANCELED);
+            finish();
+            return;
+        }
+        final boolean readOnly =
+                intent.getBooleanExtra(Intent.EXTRA_PROCESS_TEXT_READONLY, false);
+
+        setContentView(R.layout.process_text);
+        mProgress = findViewById(R.id.process_text_progress);
+        mProgress.setMax(text.length());
+        findViewById(R.id.process_text_cancel).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                cancel();
+                setResult(RESULT_CANCELED);
+                finish();
+            }
+        });
+
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                convert(text, readOnly);
+            }
+        }, "dokaben-process-text");
+        mWorker.start();
+    }
+
+    @Override
+    protected void onDestroy() {
+        cancel();
+        super.onDestroy();
+    }
+
+    private void cancel() {
+        mCancelled = true;
+        if (mWorker != null) {
+            mWorker.interrupt();
+        }
+    }
+
+    /**
+     * Runs on the worker thread.
+     */
+    private void convert(CharSequence text, final boolean readOnly) {
+        final CharBuffer in = CharBuffer.wrap(text);
+        final int length = in.length();
+        final StringBuilder out = new StringBuilder(
+                (int) Math.min((long) length * DokabenConverter.EXPANSION, MAX_RESULT_LENGTH));
+
+        int start = 0;
+        while (start < length) {
+            if (mCancelled || Thread.interrupted()) {
+                return;
+            }
+            int end = Math.min(start + WINDOW, length);
+            if (end < length && Character.isHighSurrogate(in.charAt(end - 1))) {
+                // Keep surrogate pairs inside one window.
+                end--;
+            }
+            DokabenConverter.convert(in, start, end, out);
+            if (out.length() > MAX_RESULT_LENGTH) {
+                finishOnUiThread(null, readOnly);
+                return;
+            }
+            start = end;
+            final int progress = start;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mProgress.setProgress(progress);
+                }
+            });
+        }
+        finishOnUiThread(out, readOnly);
+    }
+
+    private void finishOnUiThread(final CharSequence result, final boolean readOnly) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled || isFinishing()) {
+                    return;
+                }
+                if (result == null) {
+                    Toast.makeText(ProcessTextActivity.this, R.string.process_text_too_long,
+                            Toast.LENGTH_LONG).show();
+                    setResult(RESULT_CANCELED);
+                } else if (readOnly) {
+                    // The caller can not take the text back, so hand it over the clipboard.
+                    ClipboardManager clipboard = getSystemService(ClipboardManager.class);
+                    clipboard.setPrimaryClip(ClipData.newPlainText(
+                            getText(R.string.process_text_name), result));
+                    Toast.makeText(ProcessTextActivity.this, R.string.process_text_copied,
+                            Toast.LENGTH_SHORT).show();
+                    setResult(RESULT_OK);
+                } else {
+                    setResult(RESULT_OK,
+                            new Intent().putExtra(Intent.EXTRA_PROCESS_TEXT, result));
+                }
+                finish();
+            }
+        });
+    }
+}
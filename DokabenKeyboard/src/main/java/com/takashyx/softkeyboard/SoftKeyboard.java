@@ -17,10 +17,15 @@
 package com.takashyx.softkeyboard;
 
 import android.app.Dialog;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Rect;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
 import android.os.IBinder;
+import android.os.Trace;
+import android.preference.PreferenceManager;
 import android.text.InputType;
 import android.text.method.MetaKeyKeyListener;
 import android.util.Log;
@@ -28,6 +33,7 @@ import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.Window;
+import android.view.WindowManager;
 import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.ExtractedText;
@@ -36,10 +42,11 @@ import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputMethodManager;
 import android.view.inputmethod.InputMethodSubtype;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Example of writing an input method for a soft keyboard.  This code is
@@ -62,236 +69,147 @@ public class SoftKeyboard extends InputMethodService
      */
     static final boolean PROCESS_HARD_KEYS = true;
 
+    /* async trace section from onCreate to the first onCreateInputView */
+    private static final String TRACE_COLD_START = "SoftKeyboard cold start";
+    private static final String TRACE_FIRST_GLYPH = "SoftKeyboard first glyph us";
+    private static final String TRACE_CANDIDATE_LAYOUTS = "SoftKeyboard candidate layouts per key";
+    private static final String TRACE_EDITOR_CALLS = "SoftKeyboard editor calls per key";
+
+    /** Preference key of the speculative flick mode. */
+    static final String PREF_SPECULATIVE_FLICK = "speculative_flick";
+    /** Preference key of the kana output mode, kept across restarts. */
+    static final String PREF_HIRAGANA = "hiragana";
+
     private InputMethodManager mInputMethodManager;
 
     private DokabenFlingKeyboardView mInputView;
     private CandidateView mCandidateView;
     private CompletionInfo[] mCompletions;
     
-    private StringBuilder mComposing = new StringBuilder();
+    private final ComposingText mComposing = new ComposingText();
     private boolean mPredictionOn;
     private boolean mCompletionOn;
-    private int mLastDisplayWidth;
+    /* sides of the display, which the keyboards span in either orientation */
+    private int mDisplayLongSide;
+    private int mDisplayShortSide;
     private boolean mCapsLock;
     private long mLastShiftTime;
     private long mMetaState;
     
-    private DokabenFlingKeyboard mQwertyKeyboard;
+    private KeyboardCache mKeyboardCache;
     private DokabenFlingKeyboard mCurKeyboard;
+    /* layout shown, one of the LAYOUT_ constants in KeyboardCache */
+    private int mLayout = KeyboardCache.LAYOUT_KANA;
+    /* the kana keys output hiragana rather than katakana */
+    private boolean mHiragana;
+    /* enter key style asked for by the current editor */
+    private int mEnterStyle;
     
-    private String mWordSeparators;
+    private final BitSet mWordSeparators = new BitSet();
+
+    /* reused to commit single characters without allocating a String per key */
+    private final StringBuilder mSingleChar = new StringBuilder(1);
 
     ArrayList<String> mCandidateList = new ArrayList<String>();
 
-    /* store last Keydown for swipe */
-    private int mKeyDownKeyCode;
-
-    /*swipe status*/
-    private int mSwipeDirection;
-    private boolean mPressing;
-
-    private int [][] dokaben_keycode_array = {
-            //center, left, up, right, down
-            {0x30A2, 0x30A4, 0x30A6, 0x30A8, 0x30AA}, // あいうえお
-            {0x30AB, 0x30AD, 0x30AF, 0x30B1, 0x30B3}, // かきくけこ
-            {0x30B5, 0x30B7, 0x30B9, 0x30BB, 0x30BD}, // さしすせそ
-            {0x30BF, 0x30C1, 0x30C4, 0x30C6, 0x30C8}, // たちつてと
-            {0x30CA, 0x30CB, 0x30CC, 0x30CD, 0x30CE}, // なにぬねの
-            {0x30CF, 0x30D2, 0x30D5, 0x30D8, 0x30DB}, // はひふへほ
-            {0x30DE, 0x30DF, 0x30E0, 0x30E1, 0x30E2}, // まみむめも
-            {0x30E4, 0,      0x30E6, 0,      0x30E8}, // や（ゆ）よ
-            {0x30E9, 0x30EA, 0x30EB, 0x30EC, 0x30ED}, // らりるれろ
-            //（濁点半濁点大小）゛（小）゜（なし）    -> handleDakuten()で処理
-            {0x30EF, 0x30F2, 0x30F3, 0x30FC, 0}, // わをんー
-            //？！ー -> handleKigou()で処理
-    };
-
-    private Map<Integer, Integer> dokaben_keycode_array_index;
-    private Map<String, String> dakuten_convert_array;
-    private Map<String, String> kigou_convert_array;
-    private Map<String, String> dokaben_convert_array;
+    /* katakana words offered as completions of the composing text, null if it failed to load */
+    private KatakanaDictionary mDictionary;
+    private static final int MAX_PREDICTIONS = 8;
+
+    /* how many chars before the cursor are replaced when the decoded candidate is picked */
+    private int mDecodeLength;
+
+    /* how far back from the cursor we look for dokaben shortcodes to decode */
+    private static final int DECODE_WINDOW = 1024;
+
+    /* selection in the editor, tracked so the cursor keys need not ask for it */
+    private int mSelStart = -1;
+    private int mSelEnd = -1;
+    /* setSelection calls not yet reported back through onUpdateSelection */
+    private int mSelectionMovesInFlight;
+
+    /* times a repeatable key has fired since it went down */
+    private int mRepeatCount;
+
+    /* text before the cursor for the word and chunk ticks of a held delete, fetched
+       once and trimmed as they delete */
+    private final StringBuilder mDeleteWindow = new StringBuilder(DeleteEngine.FETCH);
+    /* mDeleteWindow matches the editor, which only our own deletes have changed */
+    private boolean mDeleteWindowValid;
+    /* mDeleteWindow reaches back to the start of the text */
+    private boolean mDeleteWindowAtStart;
+
+    /* flicks on the kana keys, tracked per pointer */
+    private OnSwipeTouchListener mFlickListener;
+    /* flick outputs, reloaded when the imported map file changes */
+    private FlickMap mFlickMap = FlickMap.BUILT_IN;
+    private long mFlickMapModified;
+
+    /* show the flick output in the composing text while the key is still down */
+    private boolean mSpeculativeFlick;
+    /* speculative output is used for the current editor */
+    private boolean mSpeculating;
+    /* outputs of pending flicks shown at the end of mComposing */
+    private final SpeculativeFlicks mSpeculative = new SpeculativeFlicks(mComposing);
+
+    /* time of the last flick key press, until its first glyph reaches the editor */
+    private long mPressTimeNanos;
+    private boolean mFirstGlyphPending;
+
+    private boolean mColdStartTraced;
+
+    /* every editor call goes through this, so we can count them per keystroke */
+    private final CountingInputConnection mInputConnection = new CountingInputConnection();
+    private int mCallCountAtPress;
+    private int mLayoutCountAtPress;
+
+    /* sends the composing text once per frame however many keys changed it */
+    private final EditCoalescer mComposingUpdate;
+
+    public SoftKeyboard() {
+        this(EditCoalescer.CHOREOGRAPHER);
+    }
 
+    /**
+     * Create a keyboard whose composing updates are posted to {@code frames}, so tests
+     * can run the frames themselves.
+     */
+    SoftKeyboard(EditCoalescer.Frames frames) {
+        mComposingUpdate = new EditCoalescer(new Runnable() {
+            @Override
+            public void run() {
+                sendComposingText();
+            }
+        }, frames);
+    }
 
     /**
      * Main initialization of the input method component.  Be sure to call
      * to super class.
      */
     @Override public void onCreate() {
+        Trace.beginAsyncSection(TRACE_COLD_START, 0);
         super.onCreate();
         mInputMethodManager = (InputMethodManager)getSystemService(INPUT_METHOD_SERVICE);
-        mWordSeparators = getResources().getString(R.string.word_separators);
-
-        dokaben_keycode_array_index = new HashMap<Integer, Integer>();
-        dokaben_keycode_array_index.put(getIntFromUTF8("ア"),0);
-        dokaben_keycode_array_index.put(getIntFromUTF8("カ"),1);
-        dokaben_keycode_array_index.put(getIntFromUTF8("サ"),2);
-        dokaben_keycode_array_index.put(getIntFromUTF8("タ"),3);
-        dokaben_keycode_array_index.put(getIntFromUTF8("ナ"),4);
-        dokaben_keycode_array_index.put(getIntFromUTF8("ハ"),5);
-        dokaben_keycode_array_index.put(getIntFromUTF8("マ"),6);
-        dokaben_keycode_array_index.put(getIntFromUTF8("ヤ"),7);
-        dokaben_keycode_array_index.put(getIntFromUTF8("ラ"),8);
-        dokaben_keycode_array_index.put(getIntFromUTF8("ワ"),9);
-        dokaben_keycode_array_index.put(getIntFromUTF8("、"),10);
-
-        dakuten_convert_array = new HashMap<String, String>();
-        dakuten_convert_array.put("カ","ガ");
-        dakuten_convert_array.put("ガ","カ");
-        dakuten_convert_array.put("キ","ギ");
-        dakuten_convert_array.put("ギ","キ");
-        dakuten_convert_array.put("ク","グ");
-        dakuten_convert_array.put("グ","ク");
-        dakuten_convert_array.put("ケ","ゲ");
-        dakuten_convert_array.put("ゲ","ケ");
-        dakuten_convert_array.put("コ","ゴ");
-        dakuten_convert_array.put("ゴ","コ");
-
-        dakuten_convert_array.put("サ","ザ");
-        dakuten_convert_array.put("ザ","サ");
-        dakuten_convert_array.put("シ","ジ");
-        dakuten_convert_array.put("ジ","シ");
-        dakuten_convert_array.put("ス","ズ");
-        dakuten_convert_array.put("ズ","ス");
-        dakuten_convert_array.put("セ","ゼ");
-        dakuten_convert_array.put("ゼ","セ");
-        dakuten_convert_array.put("ソ","ゾ");
-        dakuten_convert_array.put("ゾ","ソ");
-
-        dakuten_convert_array.put("タ","ダ");
-        dakuten_convert_array.put("ダ","タ");
-        dakuten_convert_array.put("チ","ヂ");
-        dakuten_convert_array.put("ヂ","チ");
-        dakuten_convert_array.put("ツ","ッ");
-        dakuten_convert_array.put("ッ","ヅ");
-        dakuten_convert_array.put("ヅ","ツ");
-        dakuten_convert_array.put("テ","デ");
-        dakuten_convert_array.put("デ","テ");
-        dakuten_convert_array.put("ト","ド");
-        dakuten_convert_array.put("ド","ト");
-
-        dakuten_convert_array.put("ハ","バ");
-        dakuten_convert_array.put("バ","パ");
-        dakuten_convert_array.put("パ","ハ");
-        dakuten_convert_array.put("ヒ","ビ");
-        dakuten_convert_array.put("ビ","ピ");
-        dakuten_convert_array.put("ピ","ヒ");
-        dakuten_convert_array.put("フ","ブ");
-        dakuten_convert_array.put("ブ","プ");
-        dakuten_convert_array.put("プ","フ");
-        dakuten_convert_array.put("ヘ","ベ");
-        dakuten_convert_array.put("ベ","ペ");
-        dakuten_convert_array.put("ペ","ヘ");
-        dakuten_convert_array.put("ホ","ボ");
-        dakuten_convert_array.put("ボ","ポ");
-        dakuten_convert_array.put("ポ","ホ");
-
-        dakuten_convert_array.put("ア","ァ");
-        dakuten_convert_array.put("ァ","ア");
-        dakuten_convert_array.put("イ","ィ");
-        dakuten_convert_array.put("ィ","イ");
-        dakuten_convert_array.put("ウ","ゥ");
-        dakuten_convert_array.put("ゥ","ウ");
-        dakuten_convert_array.put("エ","ェ");
-        dakuten_convert_array.put("ェ","エ");
-        dakuten_convert_array.put("オ","ォ");
-        dakuten_convert_array.put("ォ","オ");
-        dakuten_convert_array.put("ヤ","ャ");
-        dakuten_convert_array.put("ャ","ヤ");
-        dakuten_convert_array.put("ユ","ュ");
-        dakuten_convert_array.put("ュ","ユ");
-        dakuten_convert_array.put("ヨ","ョ");
-        dakuten_convert_array.put("ョ","ヨ");
-
-
-        dokaben_convert_array = new HashMap<String, String>();
-        dokaben_convert_array.put("ア",":dokaben_a:");
-        dokaben_convert_array.put("イ",":dokaben_i:");
-        dokaben_convert_array.put("ウ",":dokaben_u:");
-        dokaben_convert_array.put("エ",":dokaben_e:");
-        dokaben_convert_array.put("オ",":dokaben_o:");
-        dokaben_convert_array.put("ァ",":dokaben_a_small:");
-        dokaben_convert_array.put("ィ",":dokaben_i_small:");
-        dokaben_convert_array.put("ゥ",":dokaben_u_small:");
-        dokaben_convert_array.put("ェ",":dokaben_e_small:");
-        dokaben_convert_array.put("ォ",":dokaben_o_small:");
-        dokaben_convert_array.put("カ",":dokaben_ka:");
-        dokaben_convert_array.put("キ",":dokaben_ki:");
-        dokaben_convert_array.put("ク",":dokaben_ku:");
-        dokaben_convert_array.put("ケ",":dokaben_ke:");
-        dokaben_convert_array.put("コ",":dokaben_ko:");
-        dokaben_convert_array.put("ガ",":dokaben_ga:");
-        dokaben_convert_array.put("ギ",":dokaben_gi:");
-        dokaben_convert_array.put("グ",":dokaben_gu:");
-        dokaben_convert_array.put("ゲ",":dokaben_ge:");
-        dokaben_convert_array.put("ゴ",":dokaben_go:");
-        dokaben_convert_array.put("サ",":dokaben_sa:");
-        dokaben_convert_array.put("シ",":dokaben_si:");
-        dokaben_convert_array.put("ス",":dokaben_su:");
-        dokaben_convert_array.put("セ",":dokaben_se:");
-        dokaben_convert_array.put("ソ",":dokaben_so:");
-        dokaben_convert_array.put("ザ",":dokaben_za:");
-        dokaben_convert_array.put("ジ",":dokaben_zi:");
-        dokaben_convert_array.put("ズ",":dokaben_zu:");
-        dokaben_convert_array.put("ゼ",":dokaben_ze:");
-        dokaben_convert_array.put("ゾ",":dokaben_zo:");
-        dokaben_convert_array.put("タ",":dokaben_ta:");
-        dokaben_convert_array.put("チ",":dokaben_ti:");
-        dokaben_convert_array.put("ツ",":dokaben_tu:");
-        dokaben_convert_array.put("テ",":dokaben_te:");
-        dokaben_convert_array.put("ト",":dokaben_to:");
-        dokaben_convert_array.put("ダ",":dokaben_da:");
-        dokaben_convert_array.put("ヂ",":dokaben_di:");
-        dokaben_convert_array.put("ヅ",":dokaben_du:");
-        dokaben_convert_array.put("デ",":dokaben_de:");
-        dokaben_convert_array.put("ド",":dokaben_do:");
-        dokaben_convert_array.put("ナ",":dokaben_na:");
-        dokaben_convert_array.put("ニ",":dokaben_ni:");
-        dokaben_convert_array.put("ヌ",":dokaben_nu:");
-        dokaben_convert_array.put("ネ",":dokaben_ne:");
-        dokaben_convert_array.put("ノ",":dokaben_no:");
-        dokaben_convert_array.put("ハ",":dokaben_ha:");
-        dokaben_convert_array.put("ヒ",":dokaben_hi:");
-        dokaben_convert_array.put("フ",":dokaben_hu:");
-        dokaben_convert_array.put("ヘ",":dokaben_he:");
-        dokaben_convert_array.put("ホ",":dokaben_ho:");
-        dokaben_convert_array.put("バ",":dokaben_ba:");
-        dokaben_convert_array.put("ビ",":dokaben_bi:");
-        dokaben_convert_array.put("ブ",":dokaben_bu:");
-        dokaben_convert_array.put("ベ",":dokaben_be:");
-        dokaben_convert_array.put("ボ",":dokaben_bo:");
-        dokaben_convert_array.put("パ",":dokaben_pa:");
-        dokaben_convert_array.put("ピ",":dokaben_pi:");
-        dokaben_convert_array.put("プ",":dokaben_pu:");
-        dokaben_convert_array.put("ペ",":dokaben_pe:");
-        dokaben_convert_array.put("ポ",":dokaben_po:");
-        dokaben_convert_array.put("マ",":dokaben_ma:");
-        dokaben_convert_array.put("ミ",":dokaben_mi:");
-        dokaben_convert_array.put("ム",":dokaben_mu:");
-        dokaben_convert_array.put("メ",":dokaben_me:");
-        dokaben_convert_array.put("モ",":dokaben_mo:");
-        dokaben_convert_array.put("ヤ",":dokaben_ya:");
-        dokaben_convert_array.put("ユ",":dokaben_yu:");
-        dokaben_convert_array.put("ヨ",":dokaben_yo:");
-        dokaben_convert_array.put("ラ",":dokaben_ra:");
-        dokaben_convert_array.put("リ",":dokaben_ri:");
-        dokaben_convert_array.put("ル",":dokaben_ru:");
-        dokaben_convert_array.put("レ",":dokaben_re:");
-        dokaben_convert_array.put("ロ",":dokaben_ro:");
-        dokaben_convert_array.put("ッ",":dokaben_tu_small:");
-        dokaben_convert_array.put("ャ",":dokaben_ya_small:");
-        dokaben_convert_array.put("ュ",":dokaben_yu_small:");
-        dokaben_convert_array.put("ョ",":dokaben_yo_small:");
-        dokaben_convert_array.put("ワ",":dokaben_wa:");
-        dokaben_convert_array.put("ヲ",":dokaben_wo:");
-        dokaben_convert_array.put("ン",":dokaben_n:");
-        dokaben_convert_array.put("ー",":dokaben_-:");
-        dokaben_convert_array.put("！",":dokaben_bikkuri:");
-        dokaben_convert_array.put("？",":dokaben_hatena:");
-
-        kigou_convert_array = new HashMap<String, String>();
-        kigou_convert_array.put("？","！");
-        kigou_convert_array.put("！","？");
-        kigou_convert_array.put("！","ー");
+        setWordSeparators(getResources().getString(R.string.word_separators));
+        mKeyboardCache = new KeyboardCache(this);
+        try {
+            mDictionary = KatakanaDictionary.open(this);
+        } catch (IOException e) {
+            Log.w("dokaben", "no katakana dictionary", e);
+        }
+    }
+
+    void setWordSeparators(CharSequence separators) {
+        mWordSeparators.clear();
+        for (int i = 0; i < separators.length(); i++) {
+            mWordSeparators.set(separators.charAt(i));
+        }
+    }
+
+    @Override public void onDestroy() {
+        mKeyboardCache.close();
+        super.onDestroy();
     }
     
     /**
@@ -300,15 +218,23 @@ public class SoftKeyboard extends InputMethodService
      */
     @Override public void onInitializeInterface() {
         //super.onInitializeInterface();
-        if (mQwertyKeyboard != null) {
-            // Configuration changes can happen after the keyboard gets recreated,
-            // so we need to be able to re-build the keyboards if the available
-            // space has changed.
-            int displayWidth = getMaxWidth();
-            if (displayWidth == mLastDisplayWidth) return;
-            mLastDisplayWidth = displayWidth;
-        }
-        mQwertyKeyboard = new DokabenFlingKeyboard(this, R.xml.key_layout);
+        // Configuration changes can happen after the keyboard gets recreated,
+        // so we need to be able to switch the keyboards if the available
+        // space has changed.  Their variants come ready from mKeyboardCache.  They
+        // are laid out for the whole display rather than for getMaxWidth(), which
+        // leaves out insets that are only known once rotated.
+        final Rect bounds = getSystemService(WindowManager.class)
+                .getMaximumWindowMetrics().getBounds();
+        final int longSide = Math.max(bounds.width(), bounds.height());
+        final int shortSide = Math.min(bounds.width(), bounds.height());
+        if (longSide == mDisplayLongSide && shortSide == mDisplayShortSide) return;
+        mDisplayLongSide = longSide;
+        mDisplayShortSide = shortSide;
+        mKeyboardCache.prepare(longSide, shortSide, getOrientation());
+    }
+
+    private int getOrientation() {
+        return getResources().getConfiguration().orientation;
     }
     
     /**
@@ -318,42 +244,65 @@ public class SoftKeyboard extends InputMethodService
      * a configuration change.
      */
     @Override public View onCreateInputView() {
+        if (!mColdStartTraced) {
+            Trace.endAsyncSection(TRACE_COLD_START, 0);
+            mColdStartTraced = true;
+        }
         mInputView = (DokabenFlingKeyboardView) getLayoutInflater().inflate(
                 R.layout.input, null);
         mInputView.setOnKeyboardActionListener(this);
-        mInputView.setOnTouchListener(new OnSwipeTouchListener(this)
-        {
-            public void onKeySwipeLeft() {
-//                Log.i("dokaben", "onKeySwipeLeft");
-                mSwipeDirection = 1;
-            }
-
-            public void onKeySwipeUp() {
-//                Log.i("dokaben", "onKeySwipeUp");
-                mSwipeDirection = 2;
-            }
+        mInputView.setOnTouchListener(createFlickListener());
+
+        setDokabenKeyboard();
+        if (DEBUG) {
+            mInputView.setDrawListener(new DokabenFlingKeyboardView.DrawListener() {
+                @Override
+                public void onKeyboardDrawn(long drawNanos, boolean recorded) {
+                    Log.i("dokaben", "keyboard drawn in " + drawNanos / 1000 + "us"
+                            + (recorded ? " (recorded)" : ""));
+                }
+            });
+        }
+        return mInputView;
+    }
 
-            public void onKeySwipeRight(){
-//                Log.i("dokaben", "onKeySwipeRight");
-                mSwipeDirection = 3;
+    /**
+     * Create the listener that turns touches on the kana keys into flicks.
+     */
+    OnSwipeTouchListener createFlickListener() {
+        mFlickListener = new OnSwipeTouchListener()
+        {
+            public void onFlickChanged() {
+                if (mSpeculating) {
+                    showSpeculativeFlicks();
+                }
             }
 
-            public void onKeySwipeDown() {
-//                Log.i("dokaben", "onKeySwipeDown ");
-                mSwipeDirection = 4;
+            public void onFlickCommit(int keyCode, int direction) {
+//                Log.i("dokaben", "onFlickCommit " + keyCode + " " + direction);
+                commitFlick(kanaOutput(mFlickMap.output(keyCode, direction)));
             }
-        });
-
-        setDokabenKeyboard(mQwertyKeyboard);
-        mInputView.setPreviewEnabled(false);
-        return mInputView;
+        };
+        mFlickListener.setFlickMap(mFlickMap);
+        return mFlickListener;
     }
 
-    private void setDokabenKeyboard(DokabenFlingKeyboard nextKeyboard) {
+    private void setDokabenKeyboard() {
         final boolean shouldSupportLanguageSwitchKey =
                 mInputMethodManager.shouldOfferSwitchingToNextInputMethod(getToken());
-        nextKeyboard.setLanguageSwitchKeyVisibility(shouldSupportLanguageSwitchKey);
-        mInputView.setKeyboard(nextKeyboard);
+        mCurKeyboard = mKeyboardCache.get(mDisplayLongSide, mDisplayShortSide,
+                getOrientation(), mLayout);
+        // The keyboard is shared by every editor, so its keys that depend on the
+        // editor are set each time it is shown.
+        final Resources res = getResources();
+        boolean relabeled = mCurKeyboard.setEnterStyle(res, mEnterStyle);
+        relabeled |= mCurKeyboard.setLanguageSwitchKeyVisibility(shouldSupportLanguageSwitchKey);
+        relabeled |= mCurKeyboard.setHiraganaMode(res, mHiragana);
+        if (mInputView.getKeyboard() != mCurKeyboard) {
+            mInputView.setKeyboard(mCurKeyboard);
+        } else if (relabeled) {
+            mInputView.invalidateAllKeys();
+        }
     }
 
     /**
@@ -363,6 +312,7 @@ public class SoftKeyboard extends InputMethodService
     @Override public View onCreateCandidatesView() {
         mCandidateView = new CandidateView(this);
         mCandidateView.setService(this);
+        mLayoutCountAtPress = 0;
         return mCandidateView;
     }
 
@@ -377,8 +327,13 @@ public class SoftKeyboard extends InputMethodService
         
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
-        mComposing.setLength(0);
+        mComposingUpdate.cancel();
+        mComposing.clear();
         updateCandidates();
+
+        mSelStart = attribute.initialSelStart;
+        mSelEnd = attribute.initialSelEnd;
+        mSelectionMovesInFlight = 0;
         
         if (!restarting) {
             // Clear shift states.
@@ -392,12 +347,19 @@ public class SoftKeyboard extends InputMethodService
         // We are now going to initialize our state based on the type of
         // text being edited.
         switch (attribute.inputType & InputType.TYPE_MASK_CLASS) {
+            case InputType.TYPE_CLASS_NUMBER:
+            case InputType.TYPE_CLASS_DATETIME:
+            case InputType.TYPE_CLASS_PHONE:
+                // Numbers and dates are entered with the number pad.
+                mLayout = KeyboardCache.LAYOUT_NUMBERS;
+                break;
+                
             case InputType.TYPE_CLASS_TEXT:
                 // This is general text editing.  We will default to the
-                // normal alphabetic keyboard, and assume that we should
+                // kana keyboard, and assume that we should
                 // be doing predictive text (showing candidates as the
                 // user types).
-                mCurKeyboard = mQwertyKeyboard;
+                mLayout = KeyboardCache.LAYOUT_KANA;
                 mPredictionOn = true;
                 
                 // We now look for a few special variations of text that will
@@ -408,6 +370,7 @@ public class SoftKeyboard extends InputMethodService
                     // Do not display predictions / what the user is typing
                     // when they are entering a password.
                     mPredictionOn = false;
+                    mLayout = KeyboardCache.LAYOUT_ALPHABET;
                 }
                 
                 if (variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
@@ -417,6 +380,11 @@ public class SoftKeyboard extends InputMethodService
                     // or URIs.
                     mPredictionOn = false;
                 }
+                if (variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
+                        || variation == InputType.TYPE_TEXT_VARIATION_URI) {
+                    // Nor is kana.
+                    mLayout = KeyboardCache.LAYOUT_ALPHABET;
+                }
                 
                 if ((attribute.inputType & InputType.TYPE_TEXT_FLAG_AUTO_COMPLETE) != 0) {
                     // If this is an auto-complete text view, then our predictions
@@ -435,15 +403,15 @@ public class SoftKeyboard extends InputMethodService
                 break;
                 
             default:
-                // For all unknown input types, default to the alphabetic
+                // For all unknown input types, default to the kana
                 // keyboard with no special features.
-                mCurKeyboard = mQwertyKeyboard;
+                mLayout = KeyboardCache.LAYOUT_KANA;
                 updateShiftKeyState(attribute);
         }
         
         // Update the label on the enter key, depending on what the application
         // says it will do.
-        mCurKeyboard.setImeOptions(getResources(), attribute.imeOptions);
+        mEnterStyle = DokabenFlingKeyboard.enterStyle(attribute.imeOptions);
     }
 
     /**
@@ -454,8 +422,14 @@ public class SoftKeyboard extends InputMethodService
         super.onFinishInput();
         
         // Clear current composing text and candidates.
-        mComposing.setLength(0);
+        mComposingUpdate.cancel();
+        mComposing.clear();
         updateCandidates();
+        if (mFlickListener != null) {
+            mSpeculating = false;
+            mFlickListener.cancel();
+        }
+        mSpeculative.reset();
         
         // We only hide the candidates window when finishing input on
         // a particular editor, to avoid popping the underlying application
@@ -463,7 +437,7 @@ public class SoftKeyboard extends InputMethodService
         // its window.
         setCandidatesViewShown(false);
         
-        mCurKeyboard = mQwertyKeyboard;
+        mEnterStyle = DokabenFlingKeyboard.ENTER_DEFAULT;
         if (mInputView != null) {
             mInputView.closing();
         }
@@ -471,12 +445,32 @@ public class SoftKeyboard extends InputMethodService
     
     @Override public void onStartInputView(EditorInfo attribute, boolean restarting) {
         super.onStartInputView(attribute, restarting);
+        // Read the modes first: the keyboard is labelled from them.
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mSpeculativeFlick = prefs.getBoolean(PREF_SPECULATIVE_FLICK, false);
+        mHiragana = prefs.getBoolean(PREF_HIRAGANA, false);
+        mSpeculating = mSpeculativeFlick && mPredictionOn;
         // Apply the selected keyboard to the input view.
-        setDokabenKeyboard(mCurKeyboard);
+        setDokabenKeyboard();
         mInputView.closing();
+        updateShiftKeyState(attribute);
+        updateFlickMap();
         final InputMethodSubtype subtype = mInputMethodManager.getCurrentInputMethodSubtype();
     }
 
+    /**
+     * Load the flick map again if one was imported or reset since it was last loaded.
+     * This only costs a stat of the map file.
+     */
+    private void updateFlickMap() {
+        final long modified = FlickMap.getFile(this).lastModified();
+        if (modified != mFlickMapModified) {
+            mFlickMapModified = modified;
+            mFlickMap = FlickMap.load(this);
+            mFlickListener.setFlickMap(mFlickMap);
+        }
+    }
+
     /**
      * Deal with the editor reporting movement of its cursor.
      */
@@ -485,17 +479,50 @@ public class SoftKeyboard extends InputMethodService
             int candidatesStart, int candidatesEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
                 candidatesStart, candidatesEnd);
-        
+
+        // Track the selection for the cursor keys.  Reports that were already on
+        // their way before our latest moves are stale, so the editor's values are
+        // only taken once it has caught up with us or disagrees at the end.
+        boolean moving = false;
+        boolean ours = false;
+        if (mSelectionMovesInFlight > 0) {
+            mSelectionMovesInFlight--;
+            if (newSelStart == mSelStart && newSelEnd == mSelEnd) {
+                mSelectionMovesInFlight = 0;
+                ours = true;
+            } else {
+                moving = mSelectionMovesInFlight > 0;
+                ours = moving;
+            }
+        }
+        if (!moving) {
+            mSelStart = newSelStart;
+            mSelEnd = newSelEnd;
+        }
+        if (!ours) {
+            // Something else edited the text or moved the cursor.
+            mDeleteWindowValid = false;
+        }
+
         // If the current selection in the text view changes, we should
-        // clear whatever candidate text we have.
+        // clear whatever candidate text we have.  While a composing update is
+        // still queued the editor has not seen our latest text, so a mismatch
+        // is expected then.
+        if (mComposingUpdate.isPending()) {
+            return;
+        }
         if (mComposing.length() > 0 && (newSelStart != candidatesEnd
                 || newSelEnd != candidatesEnd)) {
-            mComposing.setLength(0);
+            mComposing.clear();
             updateCandidates();
             InputConnection ic = getCurrentInputConnection();
             if (ic != null) {
                 ic.finishComposingText();
             }
+        } else if (mComposing.length() == 0 && newSelStart == newSelEnd
+                && mSelectionMovesInFlight == 0 && !ours && mRepeatCount == 0) {
+            // Our own deletes and cursor moves look once, when their key goes up.
+            updateDecodeCandidate();
         }
     }
 
@@ -545,12 +572,12 @@ public class SoftKeyboard extends InputMethodService
         }
         
         if (mComposing.length() > 0) {
-            char accent = mComposing.charAt(mComposing.length() -1 );
+            char accent = mComposing.lastChar();
             int composed = KeyEvent.getDeadChar(accent, c);
 
             if (composed != 0) {
                 c = composed;
-                mComposing.setLength(mComposing.length()-1);
+                mComposing.deleteLast();
             }
         }
         
@@ -623,7 +650,6 @@ public class SoftKeyboard extends InputMethodService
                 }
                 /* handle swpipe */
                 else {
-                    mKeyDownKeyCode = keyCode;
                     return true;
                 }
         }
@@ -654,9 +680,11 @@ public class SoftKeyboard extends InputMethodService
      * Helper function to commit any text being composed in to the editor.
      */
     private void commitTyped(InputConnection inputConnection) {
+        // Committing replaces the composing region, so a queued update is moot.
+        mComposingUpdate.cancel();
         if (mComposing.length() > 0) {
             inputConnection.commitText(mComposing, mComposing.length());
-            mComposing.setLength(0);
+            mComposing.clear();
             updateCandidates();
         }
     }
@@ -666,8 +694,8 @@ public class SoftKeyboard extends InputMethodService
      * editor state.
      */
     private void updateShiftKeyState(EditorInfo attr) {
-        if (attr != null 
-                && mInputView != null && mQwertyKeyboard == mInputView.getKeyboard()) {
+        if (attr != null && mLayout == KeyboardCache.LAYOUT_ALPHABET
+                && mInputView != null && mCurKeyboard == mInputView.getKeyboard()) {
             int caps = 0;
             EditorInfo ei = getCurrentInputEditorInfo();
             if (ei != null && ei.inputType != InputType.TYPE_NULL) {
@@ -692,6 +720,7 @@ public class SoftKeyboard extends InputMethodService
      * Helper to send a key down / key up pair to the current editor.
      */
     private void keyDownUp(int keyEventCode) {
+        mComposingUpdate.flush();
         getCurrentInputConnection().sendKeyEvent(
                 new KeyEvent(KeyEvent.ACTION_DOWN, keyEventCode));
         getCurrentInputConnection().sendKeyEvent(
@@ -710,7 +739,7 @@ public class SoftKeyboard extends InputMethodService
                 if (keyCode >= '0' && keyCode <= '9') {
                     keyDownUp(keyCode - '0' + KeyEvent.KEYCODE_0);
                 } else {
-                    getCurrentInputConnection().commitText(String.valueOf((char) keyCode), 1);
+                    commitChar(getCurrentInputConnection(), keyCode);
                 }
                 break;
         }
@@ -719,19 +748,15 @@ public class SoftKeyboard extends InputMethodService
     // Implementation of KeyboardViewListener
 
     public void onKey(int primaryCode, int[] keyCodes) {
-        String s = "[";
-        for (int i:keyCodes){
-            s = s + String.valueOf(i) + ", ";
+        if (DEBUG) {
+            Log.i("dokaben", "onKey primaryCode:" + primaryCode
+                    + " keyCodes: " + Arrays.toString(keyCodes));
+        }
+        // Kana keys are committed by the flick listener itself.
+        if (primaryCode < KanaTables.BLOCK_START || primaryCode > KanaTables.BLOCK_END) {
+            commitPendingFlicks();
         }
-        s = s.substring(0,s.length()-2);
-        s = s + "]";
-
-//        Log.i("dokaben", "onKey primaryCode:" + String.valueOf(primaryCode) + " keyCodes: " + s);
 
-//        if (mPressing) {
-//            return;
-//        }
-//        else if (isWordSeparator(primaryCode)) {
         if (isWordSeparator(primaryCode)) {
             // Handle separator
             if (mComposing.length() > 0) {
@@ -739,41 +764,59 @@ public class SoftKeyboard extends InputMethodService
             }
             sendKey(primaryCode);
             updateShiftKeyState(getCurrentInputEditorInfo());
-        } else if (primaryCode == Keyboard.KEYCODE_DELETE) {
-            handleBackspace();
-        } else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
-            handleShift();
-        } else if (primaryCode == Keyboard.KEYCODE_CANCEL) {
-            handleClose();
-            return;
-        } else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_LANGUAGE_SWITCH) {
-            handleLanguageSwitch();
             return;
-        } else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_OPTIONS) {
-            // Show a menu or somethin'
-        } else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_CURSOR_LEFT) {
-            handleCursorLeft();
-        } else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_CURSOR_RIGHT) {
-            handleCursorRight();
-        }else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_DAKUTEN) {
-            handleDakuten();
-        }else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_KIGOU) {
-            handleKigou();
-        }else if (primaryCode == DokabenFlingKeyboardView.KEYCODE_DOKABEN) {
-            handleDokaben();
         }
-        // handle swipe
-        else if (0x30A2 <= primaryCode && primaryCode <= 0x30FF) {
-//            Log.i("dokaben","catch PriaryCode: " + String.valueOf(primaryCode) );
-        }
-        else {
-            handleCharacter(primaryCode, keyCodes);
+
+        switch (primaryCode) {
+            case Keyboard.KEYCODE_DELETE:
+                handleBackspace();
+                break;
+            case Keyboard.KEYCODE_SHIFT:
+                handleShift();
+                break;
+            case Keyboard.KEYCODE_MODE_CHANGE:
+                handleModeChange();
+                break;
+            case Keyboard.KEYCODE_CANCEL:
+                handleClose();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_LANGUAGE_SWITCH:
+                handleLanguageSwitch();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_OPTIONS:
+                // Show a menu or somethin'
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_CURSOR_LEFT:
+                handleCursorLeft();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_CURSOR_RIGHT:
+                handleCursorRight();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_DAKUTEN:
+                handleDakuten();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_KIGOU:
+                handleKigou();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_DOKABEN:
+                handleDokaben();
+                break;
+            case DokabenFlingKeyboardView.KEYCODE_KANA_MODE:
+                handleKanaMode();
+                break;
+            default:
+                // Kana keys are sent from onRelease, once the flick direction is known.
+                if (primaryCode < KanaTables.BLOCK_START || primaryCode > KanaTables.BLOCK_END) {
+                    handleCharacter(primaryCode, keyCodes);
+                }
+                break;
         }
     }
 
     public void onText(CharSequence text) {
         InputConnection ic = getCurrentInputConnection();
         if (ic == null) return;
+        commitPendingFlicks();
         ic.beginBatchEdit();
         if (mComposing.length() > 0) {
             commitTyped(ic);
@@ -790,16 +833,72 @@ public class SoftKeyboard extends InputMethodService
      */
     private void updateCandidates() {
         if (!mCompletionOn) {
+            mDecodeLength = 0;
             if (mComposing.length() > 0) {
                 mCandidateList.clear();
                 mCandidateList.add(mComposing.toString());
-                mCandidateList.add(dokabenConvert(mComposing.toString()));
+                mCandidateList.add(mComposing.getConverted().toString());
+                if (mDictionary != null) {
+                    addPredictions();
+                }
                 setSuggestions(mCandidateList, true, true);
             } else {
                 setSuggestions(null, false, false);
             }
         }
     }
+
+    /**
+     * Follow the candidates with the most frequent dictionary words that start with
+     * the composing text, in the kana of the current mode.
+     */
+    private void addPredictions() {
+        final int start = mCandidateList.size();
+        mDictionary.predict(mComposing, MAX_PREDICTIONS, mCandidateList);
+        if (mHiragana) {
+            for (int i = start; i < mCandidateList.size(); i++) {
+                mCandidateList.set(i, KanaTables.toHiragana(mCandidateList.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Offer the katakana decoding of the dokaben shortcodes just before the cursor,
+     * so pasted dokaben text can be turned back into something readable.  This asks
+     * the editor for text, so it is not run for each tick of a held key.
+     */
+    private void updateDecodeCandidate() {
+        if (mCompletionOn || !mPredictionOn) {
+            return;
+        }
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
+        }
+        // This runs on every cursor move, so only the tail that could hold one
+        // shortcode is fetched; the whole window only once the text ends in one.
+        CharSequence before = ic.getTextBeforeCursor(DokabenDecoder.MAX_SHORTCODE_LENGTH, 0);
+        if (before != null
+                && DokabenDecoder.shortcodeLengthBefore(before, before.length()) > 0) {
+            before = ic.getTextBeforeCursor(DECODE_WINDOW, 0);
+        } else {
+            before = null;
+        }
+        int start = before == null ? -1 : DokabenDecoder.indexOfShortcode(before);
+        if (start < 0) {
+            if (mDecodeLength > 0) {
+                updateCandidates();
+            }
+            return;
+        }
+        StringBuilder decoded = new StringBuilder(before.length() - start);
+        DokabenDecoder.decode(before, start, before.length(), decoded);
+        mDecodeLength = before.length() - start;
+        mCandidateList.clear();
+        mCandidateList.add(mHiragana
+                ? KanaTables.toHiragana(decoded.toString()) : decoded.toString());
+        setSuggestions(mCandidateList, true, true);
+    }
     
     public void setSuggestions(List<String> suggestions, boolean completions,
             boolean typedWordValid) {
@@ -816,17 +915,96 @@ public class SoftKeyboard extends InputMethodService
     private void handleBackspace() {
         final int length = mComposing.length();
         if (length > 1) {
-            mComposing.delete(length - 1, length);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            updateCandidates();
+            mComposing.deleteLast();
+            updateComposingText();
         } else if (length > 0) {
-            mComposing.setLength(0);
+            mComposingUpdate.cancel();
+            mComposing.clear();
             getCurrentInputConnection().commitText("", 0);
             updateCandidates();
+            updateShiftKeyState(getCurrentInputEditorInfo());
         } else {
+            deleteBeforeCursor();
+            updateShiftKeyState(getCurrentInputEditorInfo());
+        }
+    }
+
+    /**
+     * Delete committed text before the cursor with one editor call per tick, more of
+     * it the longer the key is held.  See {@link DeleteEngine}.  The text the word
+     * and chunk ticks look at is fetched once per hold, not once per tick.
+     */
+    private void deleteBeforeCursor() {
+        InputConnection ic = getCurrentInputConnection();
+        EditorInfo attribute = getCurrentInputEditorInfo();
+        if (ic == null || attribute == null || attribute.inputType == InputType.TYPE_NULL
+                || !ensureSelection(ic)) {
+            // Raw editors such as terminals only understand key events.
             keyDownUp(KeyEvent.KEYCODE_DEL);
+            return;
+        }
+        if (mSelStart != mSelEnd) {
+            ic.commitText("", 1);
+            mSelStart = mSelEnd = Math.min(mSelStart, mSelEnd);
+            mSelectionMovesInFlight++;
+            return;
+        }
+        if (mSelStart == 0) {
+            return;
+        }
+
+        final int repeats = mRepeatCount++;
+        int deleted;
+        if (repeats < DeleteEngine.WORD_AFTER) {
+            ic.deleteSurroundingTextInCodePoints(1, 0);
+            deleted = 1;
+        } else {
+            final StringBuilder before = mDeleteWindow;
+            if (!mDeleteWindowValid || before.length() == 0
+                    || (before.length() < DeleteEngine.WINDOW && !mDeleteWindowAtStart)) {
+                fetchDeleteWindow(ic);
+            }
+            deleted = mDeleteWindowValid ? DeleteEngine.span(before, repeats) : 0;
+            if (deleted == 0) {
+                return;
+            }
+            ic.deleteSurroundingText(deleted, 0);
+            before.setLength(before.length() - deleted);
+        }
+        // A surrogate pair counts as one here; onUpdateSelection corrects it.
+        mSelStart = mSelEnd = Math.max(0, mSelStart - deleted);
+        mSelectionMovesInFlight++;
+    }
+
+    /**
+     * Fetch the text before the cursor for the next word and chunk ticks.
+     */
+    private void fetchDeleteWindow(InputConnection ic) {
+        final CharSequence before = ic.getTextBeforeCursor(DeleteEngine.FETCH, 0);
+        mDeleteWindow.setLength(0);
+        mDeleteWindowValid = before != null;
+        if (before != null) {
+            mDeleteWindow.append(before);
+            mDeleteWindowAtStart = before.length() < DeleteEngine.FETCH;
+        }
+    }
+
+    /**
+     * Queue the composing text for the editor.  Changes made within one frame are
+     * sent together by {@link #sendComposingText}.
+     */
+    private void updateComposingText() {
+        mComposingUpdate.schedule();
+    }
+
+    private void sendComposingText() {
+        InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            ic.setComposingText(mComposing, 1);
+            reportFirstGlyph();
         }
         updateShiftKeyState(getCurrentInputEditorInfo());
+        updateCandidates();
     }
 
     private void handleShift() {
@@ -834,84 +1012,255 @@ public class SoftKeyboard extends InputMethodService
             return;
         }
         
-        checkToggleCapsLock();
-        mInputView.setShifted(mCapsLock || !mInputView.isShifted());
+        switch (mLayout) {
+            case KeyboardCache.LAYOUT_ALPHABET:
+                checkToggleCapsLock();
+                mInputView.setShifted(mCapsLock || !mInputView.isShifted());
+                break;
+            case KeyboardCache.LAYOUT_SYMBOLS:
+                mLayout = KeyboardCache.LAYOUT_SYMBOLS_SHIFT;
+                setDokabenKeyboard();
+                mInputView.setShifted(true);
+                break;
+            case KeyboardCache.LAYOUT_SYMBOLS_SHIFT:
+                mLayout = KeyboardCache.LAYOUT_SYMBOLS;
+                setDokabenKeyboard();
+                mInputView.setShifted(false);
+                break;
+        }
+    }
+
+    /**
+     * Go to the next layout: kana, alphabet, numbers, symbols and back to kana.  Every
+     * layout is already built, so this only swaps the keyboard shown.
+     */
+    private void handleModeChange() {
+        if (mInputView == null) {
+            return;
+        }
+        switch (mLayout) {
+            case KeyboardCache.LAYOUT_KANA:
+                mLayout = KeyboardCache.LAYOUT_ALPHABET;
+                break;
+            case KeyboardCache.LAYOUT_ALPHABET:
+                mLayout = KeyboardCache.LAYOUT_NUMBERS;
+                break;
+            case KeyboardCache.LAYOUT_NUMBERS:
+                mLayout = KeyboardCache.LAYOUT_SYMBOLS;
+                break;
+            default:
+                mLayout = KeyboardCache.LAYOUT_KANA;
+                break;
+        }
+        setDokabenKeyboard();
+        updateShiftKeyState(getCurrentInputEditorInfo());
     }
     
     private void handleCharacter(int primaryCode, int[] keyCodes) {
-//        if (isInputViewShown()) {
-//            if (mInputView.isShifted()) {
-//                primaryCode = Character.toUpperCase(primaryCode);
-//            }
-//        }
+        if (mLayout == KeyboardCache.LAYOUT_ALPHABET && mInputView != null
+                && mInputView.isShifted()) {
+            primaryCode = Character.toUpperCase(primaryCode);
+        }
         if (isAlphabet(primaryCode) && mPredictionOn) {
             mComposing.append((char) primaryCode);
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            updateShiftKeyState(getCurrentInputEditorInfo());
-            updateCandidates();
+            updateComposingText();
+            // The editor has not seen the letter yet, so its caps mode cannot tell us
+            // the shift is used up; a one-shot shift always is after a letter.
+            if (!mCapsLock && mLayout == KeyboardCache.LAYOUT_ALPHABET
+                    && mInputView != null && mInputView.isShifted()) {
+                mInputView.setShifted(false);
+            }
         } else {
-            Log.i("dokaben", "path4");
-            getCurrentInputConnection().commitText(
-                    String.valueOf((char) primaryCode), 1);
+            if (DEBUG) {
+                Log.i("dokaben", "path4");
+            }
+            commitChar(getCurrentInputConnection(), primaryCode);
+            updateShiftKeyState(getCurrentInputEditorInfo());
         }
     }
 
     private void handleCursorLeft() {
+        mComposingUpdate.flush();
         InputConnection ic = getCurrentInputConnection();
-        ExtractedText et = ic.getExtractedText(new ExtractedTextRequest(), 0);
-        int selectionStart = et.selectionStart;
-        int selectionEnd = et.selectionEnd;
+        if (ic == null || !ensureSelection(ic)) {
+            return;
+        }
+        if (mSelStart != mSelEnd) {
+            moveCursor(ic, Math.min(mSelStart, mSelEnd));
+            return;
+        }
 
-        if (selectionStart == selectionEnd && selectionStart != 0) {
-            ic.setSelection(selectionStart-1, selectionEnd-1);
-            updateCandidates();
+        int step = Math.min(nextCursorStep(), mSelStart);
+        if (step <= 0) {
+            return;
+        }
+        // Only the characters we are about to cross are fetched, plus one to see
+        // whether the cursor would land inside a surrogate pair.
+        CharSequence before = ic.getTextBeforeCursor(step + 1, 0);
+        if (before == null) {
+            return;
+        }
+        final int length = before.length();
+        step = Math.min(step, length);
+        int landing = length - step;
+        if (landing > 0 && Character.isLowSurrogate(before.charAt(landing))
+                && Character.isHighSurrogate(before.charAt(landing - 1))) {
+            step++;
+        }
+        if (step > 0) {
+            moveCursor(ic, mSelStart - step);
         }
     }
 
     private void handleCursorRight() {
+        mComposingUpdate.flush();
         InputConnection ic = getCurrentInputConnection();
-        ExtractedText et = ic.getExtractedText(new ExtractedTextRequest(), 0);
-        int selectionStart = et.selectionStart;
-        int selectionEnd = et.selectionEnd;
+        if (ic == null || !ensureSelection(ic)) {
+            return;
+        }
+        if (mSelStart != mSelEnd) {
+            moveCursor(ic, Math.max(mSelStart, mSelEnd));
+            return;
+        }
 
-        if (selectionStart == selectionEnd && selectionStart != et.text.length()) {
-            ic.setSelection(selectionStart+1, selectionEnd+1);
-            updateCandidates();
+        int step = nextCursorStep();
+        // The text after the cursor also tells us where the end of the field is.
+        CharSequence after = ic.getTextAfterCursor(step + 1, 0);
+        if (after == null) {
+            return;
+        }
+        final int length = after.length();
+        step = Math.min(step, length);
+        if (step > 0 && step < length && Character.isLowSurrogate(after.charAt(step))
+                && Character.isHighSurrogate(after.charAt(step - 1))) {
+            step++;
+        }
+        if (step > 0) {
+            moveCursor(ic, mSelEnd + step);
+        }
+    }
+
+    /**
+     * How far the cursor keys move on this press.  Holding a key down speeds it up.
+     */
+    private int nextCursorStep() {
+        final int repeats = mRepeatCount++;
+        if (repeats < 10) {
+            return 1;
+        } else if (repeats < 20) {
+            return 2;
+        } else if (repeats < 30) {
+            return 4;
+        }
+        return 8;
+    }
+
+    private void moveCursor(InputConnection ic, int position) {
+        mSelStart = position;
+        mSelEnd = position;
+        mSelectionMovesInFlight++;
+        ic.setSelection(position, position);
+        updateCandidates();
+    }
+
+    /**
+     * Make sure we know where the selection is.  Normally it is tracked from
+     * onUpdateSelection; only when the editor never told us is it asked for, and then
+     * without any of the text.
+     */
+    private boolean ensureSelection(InputConnection ic) {
+        if (mSelStart >= 0 && mSelEnd >= 0) {
+            return true;
+        }
+        ExtractedTextRequest request = new ExtractedTextRequest();
+        request.hintMaxChars = 0;
+        ExtractedText et = ic.getExtractedText(request, 0);
+        if (et == null || et.selectionStart < 0) {
+            return false;
         }
+        mSelStart = et.startOffset + et.selectionStart;
+        mSelEnd = et.startOffset + et.selectionEnd;
+        return true;
     }
 
     private void handleDakuten() {
-        //get previous charactor
-        String m = mComposing.toString();
-        String s = getCurrentInputConnection().getTextBeforeCursor(1,0).toString();
-        // check
-        if (dakuten_convert_array.containsKey(s) && m.length() > 0)
-        {
-            mComposing.replace(m.length()-1, m.length(), dakuten_convert_array.get(s));
-            getCurrentInputConnection().setComposingText(mComposing, 1);
-            updateShiftKeyState(getCurrentInputEditorInfo());
-            updateCandidates();
+        // The character to cycle is normally the last one being composed, which we
+        // already hold, so there is no need to ask the editor for it.
+        if (mComposing.length() > 0) {
+            if (cycleComposing(KanaTables.DAKUTEN)) {
+                updateComposingText();
+            }
+            return;
+        }
+
+        // Otherwise cycle the character already committed before the cursor.
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
+        }
+        CharSequence before = ic.getTextBeforeCursor(1, 0);
+        if (before == null || before.length() == 0) {
+            return;
+        }
+        int next = KanaTables.nextKana(KanaTables.DAKUTEN, before.charAt(0));
+        if (next != 0) {
+            ic.beginBatchEdit();
+            ic.deleteSurroundingText(1, 0);
+            ic.commitText(String.valueOf((char) next), 1);
+            ic.endBatchEdit();
         }
     }
 
     private void handleKigou() {
-        //get previous charactor
-        String m = mComposing.toString();
-        String s = getCurrentInputConnection().getTextBeforeCursor(1,0).toString();
-        // check
-        if (kigou_convert_array.containsKey(s) && m.length() > 0) {
-            mComposing.replace(m.length() - 1, m.length(), kigou_convert_array.get(s));
+        // ー is also typed on its own from the わ key, so kigou after ー starts a new ？
+        // rather than cycling it away; the ring only goes ？ → ！ → ー.
+        if (mComposing.length() > 0 && mComposing.lastChar() == 'ー'
+                || !cycleComposing(KanaTables.KIGOU)) {
+            mComposing.append('？');
+        }
+        updateComposingText();
+    }
+
+    /**
+     * Replace the last composing character with the next one in its ring.  Returns
+     * false if nothing is being composed or the character is in no ring of the table.
+     */
+    private boolean cycleComposing(CycleTable table) {
+        if (mComposing.length() == 0) {
+            return false;
         }
-        else {
-            mComposing.append("？");
+        int next = KanaTables.nextKana(table, mComposing.lastChar());
+        if (next == 0) {
+            return false;
         }
-        getCurrentInputConnection().setComposingText(mComposing, 1);
-        updateShiftKeyState(getCurrentInputEditorInfo());
-        updateCandidates();
+        mComposing.replaceLast((char) next);
+        return true;
+    }
+
+    /**
+     * Switch the kana keys between katakana and hiragana output.  Text already typed
+     * is left as it is.
+     */
+    private void handleKanaMode() {
+        mHiragana = !mHiragana;
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putBoolean(PREF_HIRAGANA, mHiragana).apply();
+        if (mInputView != null) {
+            setDokabenKeyboard();
+        }
+    }
+
+    /**
+     * The flick tables hold katakana; shift an output into hiragana when that is the
+     * mode.
+     */
+    private int kanaOutput(int output) {
+        return mHiragana ? KanaTables.toHiragana(output) : output;
     }
 
     private void handleDokaben() {
-        String s = dokabenConvert(mComposing.toString());
+        mComposingUpdate.cancel();
+        CharSequence s = mComposing.getConverted();
         InputConnection ic = getCurrentInputConnection();
 //        Log.i("dokaben","handleDokaben: "+s);
         ic.commitText(s, s.length());
@@ -950,36 +1299,67 @@ public class SoftKeyboard extends InputMethodService
         }
     }
     
-    private String getWordSeparators() {
-        return mWordSeparators;
+    public boolean isWordSeparator(int code) {
+        return code >= 0 && mWordSeparators.get(code);
     }
 
-    private int getIntFromUTF8(String s) {
-        try {
-            char [] c = s.toCharArray();
-            return (int)c[0];
+    /**
+     * Helper to commit one character without allocating a String for it.
+     */
+    private void commitChar(InputConnection ic, int code) {
+        mComposingUpdate.flush();
+        mSingleChar.setLength(0);
+        mSingleChar.append((char) code);
+        ic.commitText(mSingleChar, 1);
+        reportFirstGlyph();
+    }
 
-        }catch (Exception e){
-            return -1;
+    /**
+     * Record how long the glyph of the last flick key press took to reach the editor,
+     * measured from the press.  Compare it with the speculative mode on and off.
+     */
+    private void reportFirstGlyph() {
+        if (!mFirstGlyphPending) {
+            return;
+        }
+        mFirstGlyphPending = false;
+        final long micros = (System.nanoTime() - mPressTimeNanos) / 1000;
+        Trace.setCounter(TRACE_FIRST_GLYPH, micros);
+        if (DEBUG) {
+            Log.i("dokaben", "first glyph after " + micros + "us"
+                    + (mSpeculating ? " (speculative)" : ""));
         }
     }
 
-    private String dokabenConvert(String s){
-        String out = "";
-        for (String c : s.split("")){
-            if(dokaben_convert_array.containsKey(c)) {
-                out = out + dokaben_convert_array.get(c);
-            }
-            else {
-                out = out + c;
-            }
+    /**
+     * Rewrite the end of the composing text to show the current output of every
+     * pending flick, in press order.  Holes show nothing.
+     */
+    private void showSpeculativeFlicks() {
+        mSpeculative.show(mFlickListener, mHiragana);
+        updateComposingText();
+    }
+
+    /**
+     * Another finger's key acts on the text as shown, so flicks still held down are
+     * committed as they stand before it; otherwise backspace or dakuten would edit the
+     * speculative tail, or land before flicks released later.
+     */
+    private void commitPendingFlicks() {
+        if (mFlickListener != null && mFlickListener.getPendingCount() > 0) {
+            mFlickListener.commitPending();
         }
-        return out;
     }
 
-    public boolean isWordSeparator(int code) {
-        String separators = getWordSeparators();
-        return separators.contains(String.valueOf((char)code));
+    private void commitFlick(int output) {
+        if (output == 0) {
+            return;
+        }
+        if (mSpeculating) {
+            mSpeculative.commit(output);
+        } else {
+            handleCharacter(output, null);
+        }
     }
 
     public void pickDefaultCandidate() {
@@ -1001,26 +1381,60 @@ public class SoftKeyboard extends InputMethodService
             // we will just commit the current text.
 //            commitTyped(getCurrentInputConnection());
             String s = mCandidateList.get(index);
+            mComposingUpdate.cancel();
             getCurrentInputConnection().commitText(s, s.length());
+        } else if (mDecodeLength > 0 && index == 0) {
+            // Replace the shortcodes before the cursor with their decoding.
+            InputConnection ic = getCurrentInputConnection();
+            ic.beginBatchEdit();
+            ic.deleteSurroundingText(mDecodeLength, 0);
+            ic.commitText(mCandidateList.get(0), 1);
+            ic.endBatchEdit();
+            mDecodeLength = 0;
         }
     }
 
     public void onPress(int primaryCode) {
-        mKeyDownKeyCode = primaryCode;
-        mSwipeDirection = 0;
-        mPressing = true;
+        // Composing updates go out on the next frame, so like the candidate layouts
+        // below, the editor calls a key caused are only known at the next press.
+        // Every call is a binder transaction into the client app.
+        final int calls = mInputConnection.getCallCount();
+        Trace.setCounter(TRACE_EDITOR_CALLS, calls - mCallCountAtPress);
+        if (DEBUG) {
+            Log.i("dokaben", "editor calls for the last key: " + (calls - mCallCountAtPress));
+        }
+        mCallCountAtPress = calls;
+        mRepeatCount = 0;
+        mDeleteWindowValid = false;
+        if (mCandidateView != null) {
+            // The strip lays out after the key is handled, so the layouts a key caused
+            // are only known at the next press.
+            final int layouts = mCandidateView.getLayoutCount();
+            Trace.setCounter(TRACE_CANDIDATE_LAYOUTS, layouts - mLayoutCountAtPress);
+            if (DEBUG) {
+                Log.i("dokaben", "candidate layouts for the last key: "
+                        + (layouts - mLayoutCountAtPress));
+            }
+            mLayoutCountAtPress = layouts;
+        }
+
+        mFirstGlyphPending = KanaTables.isFlickKey(primaryCode);
+        if (mFirstGlyphPending) {
+            mPressTimeNanos = System.nanoTime();
+        }
     }
     
     public void onRelease(int primaryCode) {
-        // send char here
-        if(0x30A2 <= mKeyDownKeyCode && mKeyDownKeyCode <= 0x30FF){
-            // Log.i("dokaben", "mKeyDownKeyCode: "+ String.valueOf(mKeyDownKeyCode));
-            int FinalInputUnicode = dokaben_keycode_array[dokaben_keycode_array_index.get(mKeyDownKeyCode)][mSwipeDirection];
-            int[] keyCodes = {FinalInputUnicode};
-            handleCharacter(FinalInputUnicode, keyCodes);
+        // Kana are sent by mFlickListener, in press order.
+        if (mRepeatCount > 0 && (primaryCode == Keyboard.KEYCODE_DELETE
+                || primaryCode == DokabenFlingKeyboardView.KEYCODE_CURSOR_LEFT
+                || primaryCode == DokabenFlingKeyboardView.KEYCODE_CURSOR_RIGHT)) {
+            // The cursor stopped moving; offer the decoding of what is before it now.
+            mRepeatCount = 0;
+            if (mComposing.length() == 0 && mSelStart == mSelEnd) {
+                updateDecodeCandidate();
+            }
         }
-        mSwipeDirection = 0;
-        mPressing = false;
     }
 
     public void swipeRight() {
@@ -1041,6 +1455,11 @@ public class SoftKeyboard extends InputMethodService
 
     @Override
     public InputConnection getCurrentInputConnection() {
-        return super.getCurrentInputConnection();
+        InputConnection ic = super.getCurrentInputConnection();
+        if (ic == null) {
+            return null;
+        }
+        mInputConnection.setTarget(ic);
+        return mInputConnection;
     }
 }
\ No newline at end of file
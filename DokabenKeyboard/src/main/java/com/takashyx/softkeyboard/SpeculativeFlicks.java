@@ -0,0 +1,64 @@
+package com.takashyx.softkeyboard;
+
+/**
+ * The outputs of flicks still held down, shown at the end of the composing text.
+ *
+ * The shown outputs are a tail of the composing text that is rebuilt whenever a
+ * pending flick changes.  A released flick's output simply stays where it is, as the
+ * first char of the tail becomes composed text.  Other keys must not edit the text
+ * while there is a tail; {@link OnSwipeTouchListener#commitPending} turns the whole
+ * tail into composed text first.
+ */
+final class SpeculativeFlicks {
+
+    private final ComposingText mComposing;
+    /* chars at the end of mComposing showing the outputs of pending flicks */
+    private int mTail;
+
+    SpeculativeFlicks(ComposingText composing) {
+        mComposing = composing;
+    }
+
+    /**
+     * Replace the tail with the current outputs of the pending flicks of
+     * {@code flicks}, in hiragana if asked for.
+     */
+    void show(OnSwipeTouchListener flicks, boolean hiragana) {
+        // The tail may have been committed or dropped under us, e.g. by the editor
+        // moving the cursor.
+        int tail = Math.min(mTail, mComposing.length());
+        while (tail-- > 0) {
+            mComposing.deleteLast();
+        }
+        mTail = 0;
+        final int pending = flicks.getPendingCount();
+        for (int i = 0; i < pending; i++) {
+            int output = flicks.getPendingOutput(i);
+            if (hiragana) {
+                output = KanaTables.toHiragana(output);
+            }
+            if (output != 0) {
+                mComposing.append((char) output);
+                mTail++;
+            }
+        }
+    }
+
+    /**
+     * The first pending flick was committed with {@code output}, which is already the
+     * first char of the tail.
+     */
+    void commit(int output) {
+        if (output != 0 && mTail > 0) {
+            mTail--;
+        }
+    }
+
+    int getTailLength() {
+        return mTail;
+    }
+
+    void reset() {
+        mTail = 0;
+    }
+}
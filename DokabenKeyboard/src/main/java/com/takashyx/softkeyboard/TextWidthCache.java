@@ -0,0 +1,63 @@
+package com.takashyx.softkeyboard;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Widths of recently shown strings as measured with one paint, least recently used
+ * first out.
+ *
+ * A width only holds for the text size, typeface, scale and style it was measured
+ * with, so those are part of the key: the cache remembers them and starts over when
+ * the paint no longer matches.
+ */
+final class TextWidthCache {
+
+    private final Paint mPaint;
+    private final LinkedHashMap<String, Integer> mWidths;
+
+    /* paint config the cached widths were measured with */
+    private float mTextSize;
+    private float mTextScaleX;
+    private Typeface mTypeface;
+    private boolean mFakeBold;
+
+    TextWidthCache(Paint paint, final int capacity) {
+        mPaint = paint;
+        mWidths = new LinkedHashMap<String, Integer>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the width of {@code text} drawn with the paint, truncated to whole pixels.
+     */
+    int width(String text) {
+        checkPaint();
+        final Integer cached = mWidths.get(text);
+        if (cached != null) {
+            return cached;
+        }
+        final int width = (int) mPaint.measureText(text);
+        mWidths.put(text, width);
+        return width;
+    }
+
+    private void checkPaint() {
+        final Paint paint = mPaint;
+        if (paint.getTextSize() != mTextSize || paint.getTextScaleX() != mTextScaleX
+                || paint.getTypeface() != mTypeface || paint.isFakeBoldText() != mFakeBold) {
+            mWidths.clear();
+            mTextSize = paint.getTextSize();
+            mTextScaleX = paint.getTextScaleX();
+            mTypeface = paint.getTypeface();
+            mFakeBold = paint.isFakeBoldText();
+        }
+    }
+}
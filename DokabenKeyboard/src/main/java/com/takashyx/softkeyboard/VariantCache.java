@@ -0,0 +1,100 @@
+package com.takashyx.softkeyboard;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Variants of something slow to build, such as a parsed keyboard, keyed by a long that
+ * encodes everything the variant depends on.
+ *
+ * {@link #warm} builds the variants expected next on a background thread, so looking
+ * one up later costs a map read.  A variant asked for before it is ready is built on
+ * the caller's thread.  When a variant is built twice the first copy stored wins, so
+ * callers always get the same instance for a key.
+ */
+final class VariantCache<T> {
+
+    interface Builder<T> {
+        T build(long key);
+    }
+
+    private final Builder<T> mBuilder;
+
+    /* guarded by itself */
+    private final HashMap<Long, T> mVariants = new HashMap<Long, T>();
+
+    private final ExecutorService mWarmer = Executors.newSingleThreadExecutor();
+
+    VariantCache(Builder<T> builder) {
+        mBuilder = builder;
+    }
+
+    /**
+     * Returns the variant for {@code key}, building it now if it is not ready.
+     */
+    T get(long key) {
+        final T variant = peek(key);
+        return variant != null ? variant : build(key);
+    }
+
+    /**
+     * Returns the variant for {@code key}, or null if it has not been built.
+     */
+    T peek(long key) {
+        synchronized (mVariants) {
+            return mVariants.get(key);
+        }
+    }
+
+    /**
+     * Drop every variant not in {@code keys} and start building the missing ones on a
+     * background thread, in order.
+     */
+    Future<?> warm(final long[] keys) {
+        synchronized (mVariants) {
+            for (Iterator<Long> it = mVariants.keySet().iterator(); it.hasNext(); ) {
+                if (!contains(keys, it.next())) {
+                    it.remove();
+                }
+            }
+        }
+        return mWarmer.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (long key : keys) {
+                    if (peek(key) == null) {
+                        build(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean contains(long[] keys, long key) {
+        for (long k : keys) {
+            if (k == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private T build(long key) {
+        final T variant = mBuilder.build(key);
+        synchronized (mVariants) {
+            final T existing = mVariants.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            mVariants.put(key, variant);
+        }
+        return variant;
+    }
+
+    void close() {
+        mWarmer.shutdownNow();
+    }
+}
@@ -0,0 +1,147 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the strip's positions against a linear scan, and that a strip of 10k
+ * suggestions only measures what it shows.
+ */
+public class CandidateLayoutTest {
+
+    /* a phone-wide strip */
+    private static final int WINDOW = 1080;
+    private static final int SUGGESTIONS = 10000;
+
+    /* widths of suggestions of 1 to 8 chars at 40 px, with the gaps */
+    private static final class Widths implements CandidateLayout.Widths {
+        final int[] mWidths;
+        int mCalls;
+
+        Widths(int count, long seed) {
+            final Random random = new Random(seed);
+            mWidths = new int[count];
+            for (int i = 0; i < count; i++) {
+                mWidths[i] = (1 + random.nextInt(8)) * 40 + 20;
+            }
+        }
+
+        @Override
+        public int width(int index) {
+            mCalls++;
+            return mWidths[index];
+        }
+
+        int indexAt(int x) {
+            int start = 0;
+            for (int i = 0; i < mWidths.length; i++) {
+                if (x >= start && x < start + mWidths[i]) {
+                    return i;
+                }
+                start += mWidths[i];
+            }
+            return -1;
+        }
+
+        int total() {
+            int total = 0;
+            for (int width : mWidths) {
+                total += width;
+            }
+            return total;
+        }
+    }
+
+    @Test
+    public void indexAtMatchesLinearScan() {
+        final Widths widths = new Widths(500, 1);
+        final CandidateLayout layout = new CandidateLayout(widths);
+        layout.reset(0, widths.mWidths.length);
+        final Random random = new Random(2);
+        final int total = widths.total();
+        for (int i = 0; i < 20000; i++) {
+            final int x = random.nextInt(total + 200) - 100;
+            final int index = layout.indexAt(x);
+            assertEquals("x " + x, widths.indexAt(x), index);
+            if (index >= 0) {
+                assertTrue(layout.start(index) <= x && x < layout.end(index));
+                assertEquals(widths.mWidths[index], layout.end(index) - layout.start(index));
+            }
+        }
+        // Each suggestion was measured once, however often it was looked up.
+        assertEquals(widths.mWidths.length, widths.mCalls);
+        assertEquals(total, layout.estimateWidth());
+    }
+
+    @Test
+    public void emptyStripHasNothing() {
+        final CandidateLayout layout = new CandidateLayout(new Widths(0, 3));
+        layout.reset(0, 0);
+        assertEquals(-1, layout.indexAt(0));
+        assertEquals(0, layout.measureUpTo(WINDOW));
+        assertEquals(0, layout.estimateWidth());
+    }
+
+    @Test
+    public void resetRemeasuresOnlyFromTheChange() {
+        final Widths widths = new Widths(100, 4);
+        final CandidateLayout layout = new CandidateLayout(widths);
+        layout.reset(0, 100);
+        layout.measureUpTo(Integer.MAX_VALUE);
+        assertEquals(100, widths.mCalls);
+
+        widths.mCalls = 0;
+        widths.mWidths[60] += 40;
+        layout.reset(60, 100);
+        assertEquals(60, layout.getMeasuredCount());
+        assertEquals(widths.total(), layout.measureUpTo(Integer.MAX_VALUE));
+        assertEquals(40, widths.mCalls);
+
+        // Fewer suggestions drop the positions past the end.
+        layout.reset(100, 30);
+        assertEquals(30, layout.getMeasuredCount());
+        assertEquals(-1, layout.indexAt(layout.end(29)));
+        // More suggestions grow the array past its initial capacity.
+        final Widths more = new Widths(1000, 5);
+        final CandidateLayout grown = new CandidateLayout(more);
+        grown.reset(0, 10);
+        grown.reset(10, 1000);
+        assertEquals(more.total(), grown.measureUpTo(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void estimateExtrapolatesTheAverage() {
+        final Widths widths = new Widths(SUGGESTIONS, 6);
+        final CandidateLayout layout = new CandidateLayout(widths);
+        layout.reset(0, SUGGESTIONS);
+        final int end = layout.measureUpTo(WINDOW);
+        final int measured = layout.getMeasuredCount();
+        assertEquals(end + (int) ((long) end * (SUGGESTIONS - measured) / measured),
+                layout.estimateWidth());
+    }
+
+    @Test
+    public void firstWindowMeasuresOnlyWhatIsShown() {
+        final Widths widths = new Widths(SUGGESTIONS, 7);
+        final CandidateLayout layout = new CandidateLayout(widths);
+
+        // A fresh set shows its first window; only what is visible gets measured.
+        layout.reset(0, SUGGESTIONS);
+        final int first = layout.indexAt(0);
+        final int last = layout.indexAt(Math.min(WINDOW, layout.measureUpTo(WINDOW)) - 1);
+        final int firstWindow = widths.mCalls;
+        assertEquals(0, first);
+        assertEquals(last + 1, firstWindow);
+        assertTrue(firstWindow + " measured", firstWindow < 20);
+
+        // The next keystroke's set measures its first window again, and no more.
+        widths.mCalls = 0;
+        layout.reset(0, SUGGESTIONS);
+        layout.measureUpTo(WINDOW);
+        assertEquals(firstWindow, widths.mCalls);
+    }
+}
@@ -0,0 +1,72 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ComposingTextTest {
+
+    /* kana in both blocks, marks, ASCII, ー and both halves of a surrogate pair */
+    private static final String ALPHABET = "アガッヴヶーあがっゔゖ！？a:_ 😀";
+
+    @Test
+    public void randomEditsKeepConversionInStep() {
+        final Random random = new Random(3);
+        final ComposingText text = new ComposingText();
+        for (int op = 0; op < 100000; op++) {
+            final int pick = random.nextInt(100);
+            if (pick < 50) {
+                text.append(randomChar(random));
+            } else if (pick < 75) {
+                if (text.length() > 0) {
+                    text.deleteLast();
+                }
+            } else if (pick < 99) {
+                if (text.length() > 0) {
+                    text.replaceLast(randomChar(random));
+                }
+            } else {
+                text.clear();
+            }
+            assertConverted(op, text);
+        }
+    }
+
+    @Test
+    public void growsPastInitialCapacity() {
+        final ComposingText text = new ComposingText();
+        for (int i = 0; i < 1000; i++) {
+            text.append((char) ('ア' + i % 10));
+        }
+        assertConverted(0, text);
+        for (int i = 0; i < 999; i++) {
+            text.deleteLast();
+        }
+        assertEquals("ア", text.toString());
+        assertConverted(0, text);
+    }
+
+    @Test
+    public void charSequenceViewsTheText() {
+        final ComposingText text = new ComposingText();
+        text.append('ド');
+        text.append('カ');
+        text.replaceLast('ガ');
+        assertEquals(2, text.length());
+        assertEquals('ガ', text.lastChar());
+        assertEquals("ドガ", text.subSequence(0, 2).toString());
+        text.clear();
+        assertEquals("", text.getConverted().toString());
+    }
+
+    private static char randomChar(Random random) {
+        return ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+    }
+
+    private static void assertConverted(int op, ComposingText text) {
+        assertEquals("after op " + op + " on " + text,
+                DokabenConverter.convert(text.toString()), text.getConverted().toString());
+    }
+}
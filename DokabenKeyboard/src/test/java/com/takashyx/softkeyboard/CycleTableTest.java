@@ -0,0 +1,99 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+public class CycleTableTest {
+
+    private static final String[] DAKUTEN_RINGS = {
+            "カガ", "キギ", "クグ", "ケゲ", "コゴ",
+            "サザ", "シジ", "スズ", "セゼ", "ソゾ",
+            "タダ", "チヂ", "ツッヅ", "テデ", "トド",
+            "ハバパ", "ヒビピ", "フブプ", "ヘベペ", "ホボポ",
+            "アァ", "イィ", "ウゥ", "エェ", "オォ", "ヤャ", "ユュ", "ヨョ",
+    };
+
+    private static final String[] KIGOU_RINGS = {
+            "？！ー",
+    };
+
+    @Test
+    public void dakutenRings() {
+        assertRings(KanaTables.DAKUTEN, DAKUTEN_RINGS);
+    }
+
+    @Test
+    public void kigouRing() {
+        assertRings(KanaTables.KIGOU, KIGOU_RINGS);
+    }
+
+    @Test
+    public void hiraganaFollowsKatakanaRings() {
+        for (String ring : DAKUTEN_RINGS) {
+            for (int i = 0; i < ring.length(); i++) {
+                final int c = KanaTables.toHiragana(ring.charAt(i));
+                final int next = KanaTables.toHiragana(ring.charAt((i + 1) % ring.length()));
+                assertEquals(ring, next, KanaTables.nextKana(KanaTables.DAKUTEN, c));
+            }
+        }
+        assertEquals(0, KanaTables.nextKana(KanaTables.DAKUTEN, 'な'));
+    }
+
+    @Test
+    public void rejectsCharacterInTwoRings() {
+        try {
+            new CycleTable(new int[] {'カ', 'ガ'}, new int[] {'ガ', 'ヵ'});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new CycleTable(new int[] {'？', '！', '？'});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsBadRings() {
+        try {
+            new CycleTable(new int[] {'カ'});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new CycleTable(new int[] {'カ', 0x10000});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void outOfRange() {
+        assertEquals(0, KanaTables.DAKUTEN.next(-1));
+        assertEquals(0, KanaTables.DAKUTEN.next(0x10000));
+    }
+
+    /**
+     * Check every ring cycles in order and nothing outside the rings has a next
+     * character, over the whole BMP.
+     */
+    private static void assertRings(CycleTable table, String[] rings) {
+        final BitSet members = new BitSet();
+        for (String ring : rings) {
+            for (int i = 0; i < ring.length(); i++) {
+                members.set(ring.charAt(i));
+                assertEquals(ring, ring.charAt((i + 1) % ring.length()),
+                        table.next(ring.charAt(i)));
+            }
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (!members.get(c)) {
+                assertEquals("0x" + Integer.toHexString(c), 0, table.next(c));
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.inputmethodservice.Keyboard;
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks the spans a held delete key removes, and replays a hold through SoftKeyboard
+ * against an editor that counts the calls it gets.
+ */
+public class DeleteEngineTest {
+
+    private static final String EMOJI = "😀";
+
+    private static int word(CharSequence before) {
+        return DeleteEngine.span(before, DeleteEngine.WORD_AFTER);
+    }
+
+    private static int chunk(CharSequence before) {
+        return DeleteEngine.span(before, DeleteEngine.CHUNK_AFTER);
+    }
+
+    private static String repeat(String s, int times) {
+        final StringBuilder out = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            out.append(s);
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void wordTicksDeleteAWordAndTheSpaceAfterIt() {
+        assertEquals(5, word("one two three"));
+        assertEquals(4, word("one two "));
+        assertEquals(3, word("アイウ カキク"));
+        assertEquals(2, word("abc!?"));
+        assertEquals(5, word("     "));
+        assertEquals(0, word(""));
+    }
+
+    @Test
+    public void phaseChangesAtChunkAfter() {
+        final String words = repeat("word ", 30);
+        assertEquals(5, DeleteEngine.span(words, DeleteEngine.WORD_AFTER));
+        assertEquals(5, DeleteEngine.span(words, DeleteEngine.CHUNK_AFTER - 1));
+        final int chunk = DeleteEngine.span(words, DeleteEngine.CHUNK_AFTER);
+        // Whole words, up to the first one that reaches the chunk size.
+        assertEquals(0, chunk % 5);
+        assertTrue(chunk >= DeleteEngine.CHUNK && chunk - 5 < DeleteEngine.CHUNK);
+        assertEquals(chunk, DeleteEngine.span(words, DeleteEngine.CHUNK_AFTER + 100));
+    }
+
+    @Test
+    public void wordsAreCutAtTheLimit() {
+        final String letters = repeat("a", DeleteEngine.WORD_LIMIT + 5);
+        assertEquals(DeleteEngine.WORD_LIMIT, word(letters));
+    }
+
+    @Test
+    public void lowSurrogateAtWindowStartIsKept() {
+        final String before = EMOJI.substring(1) + "ab cd";
+        assertEquals(2, word(before));
+        assertEquals(before.length() - 1, chunk(before));
+        assertEquals(0, word(EMOJI.substring(1)));
+        assertEquals(0, chunk(EMOJI.substring(1)));
+    }
+
+    @Test
+    public void emojiStraddlingTheWordLimitStaysWhole() {
+        // The floor of the word falls between the halves of the first emoji.
+        final int emojis = DeleteEngine.WORD_LIMIT / 2;
+        final String before = "a" + repeat(EMOJI, emojis) + "!";
+        final int span = word(before);
+        assertEquals(emojis * 2 + 1, span);
+        assertFalse(Character.isLowSurrogate(before.charAt(before.length() - span)));
+
+        // And with a pair right at the floor, it is not taken at all.
+        final String even = "a" + repeat(EMOJI, emojis + 1);
+        assertEquals(DeleteEngine.WORD_LIMIT, word(even));
+    }
+
+    @Test
+    public void shortcodeBeforeTheCursorGoesWhole() {
+        final String a = DokabenConverter.lookup('ア');
+        final String i = DokabenConverter.lookup('イ');
+        assertEquals(a.length(), word("abc " + a));
+        assertEquals(i.length(), word("abc" + a + i));
+        assertEquals(a.length() + 1, word("xyz " + a + " "));
+        // A shortcode is one word even when longer than the word limit.
+        final String longest = repeat(a, 8);
+        assertEquals(a.length(), word(longest));
+    }
+
+    @Test
+    public void shortcodeCutByTheWindowStartIsNotMatched() {
+        final String a = DokabenConverter.lookup('ア');
+        final String i = DokabenConverter.lookup('イ');
+        final String before = a.substring(3) + i;
+        assertEquals(i.length(), word(before));
+        assertEquals(before.length(), chunk(before));
+        // Alone, its tail is only punctuation.
+        assertEquals(1, word(a.substring(3)));
+    }
+
+    /* an editor holding the text before the cursor, counting the calls it gets */
+    private static final class Editor extends InputConnectionWrapper {
+        final StringBuilder mText = new StringBuilder();
+        int mCalls;
+        int mFetches;
+        int mDeletes;
+
+        Editor() {
+            super(null, true);
+        }
+
+        @Override
+        public CharSequence getTextBeforeCursor(int n, int flags) {
+            mCalls++;
+            mFetches++;
+            return mText.substring(Math.max(0, mText.length() - n));
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            mCalls++;
+            mDeletes++;
+            mText.setLength(mText.length() - beforeLength);
+            return true;
+        }
+
+        @Override
+        public boolean deleteSurroundingTextInCodePoints(int beforeLength, int afterLength) {
+            mCalls++;
+            mDeletes++;
+            int length = mText.length();
+            for (int i = 0; i < beforeLength && length > 0; i++) {
+                length -= Character.charCount(Character.codePointBefore(mText, length));
+            }
+            mText.setLength(length);
+            return true;
+        }
+
+        @Override
+        public int getCursorCapsMode(int reqModes) {
+            mCalls++;
+            return 0;
+        }
+
+        @Override
+        public boolean commitText(CharSequence text, int newCursorPosition) {
+            mCalls++;
+            return true;
+        }
+    }
+
+    private static final class HeldDelete extends SoftKeyboard {
+        final Editor mEditor = new Editor();
+        final EditorInfo mInfo = new EditorInfo();
+
+        HeldDelete() {
+            mInfo.inputType = InputType.TYPE_CLASS_TEXT;
+        }
+
+        @Override
+        public InputConnection getCurrentInputConnection() {
+            return mEditor;
+        }
+
+        @Override
+        public EditorInfo getCurrentInputEditorInfo() {
+            return mInfo;
+        }
+
+        /* the editor reporting the cursor where it is now */
+        void report(int old) {
+            final int now = mEditor.mText.length();
+            onUpdateSelection(old, old, now, now, -1, -1);
+        }
+    }
+
+    private static String text(int length, long seed) {
+        final String[] words = {
+                "dokaben", "Yamada", "42", "アイウエオ", "どかべん", "!?", "、。", EMOJI + EMOJI,
+                DokabenConverter.lookup('ア') + DokabenConverter.lookup('ン'),
+        };
+        final Random random = new Random(seed);
+        final StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void heldDeleteFetchesTheTextOncePerWindow() {
+        final HeldDelete keyboard = new HeldDelete();
+        final Editor editor = keyboard.mEditor;
+        final String text = text(10000, 11);
+        editor.mText.append(text);
+        keyboard.report(0);
+
+        keyboard.onPress(Keyboard.KEYCODE_DELETE);
+        editor.mCalls = 0;
+        int ticks = 0;
+        while (editor.mText.length() > 0) {
+            final StringBuilder before = editor.mText;
+            final int length = before.length();
+            // What a tick would delete if it asked the editor for the window each time.
+            final int expected = ticks < DeleteEngine.WORD_AFTER
+                    ? Character.charCount(Character.codePointBefore(before, length))
+                    : DeleteEngine.span(before.substring(
+                            Math.max(0, length - DeleteEngine.WINDOW)), ticks);
+            keyboard.onKey(Keyboard.KEYCODE_DELETE, null);
+            assertEquals("tick " + ticks, expected, length - before.length());
+            keyboard.report(length);
+            ticks++;
+            assertTrue(ticks < text.length());
+        }
+        keyboard.onRelease(Keyboard.KEYCODE_DELETE);
+
+        // One delete per tick, and a fetch only each time the kept text runs out.
+        assertEquals(ticks, editor.mDeletes);
+        assertEquals(ticks + editor.mFetches, editor.mCalls);
+        assertTrue(editor.mFetches + " fetches",
+                editor.mFetches <= text.length() / (DeleteEngine.FETCH - DeleteEngine.WINDOW) + 1);
+        assertTrue(ticks + " ticks", ticks < text.length() / 40);
+    }
+
+    @Test
+    public void heldDeleteLooksForShortcodesOnlyOnRelease() {
+        final HeldDelete keyboard = new HeldDelete();
+        final Editor editor = keyboard.mEditor;
+        editor.mText.append(repeat(DokabenConverter.convert("ドカベン "), 50));
+        keyboard.mInfo.initialSelStart = editor.mText.length();
+        keyboard.mInfo.initialSelEnd = editor.mText.length();
+        keyboard.onStartInput(keyboard.mInfo, false);
+
+        keyboard.onPress(Keyboard.KEYCODE_DELETE);
+        for (int i = 0; i < DeleteEngine.CHUNK_AFTER + 5; i++) {
+            final int length = editor.mText.length();
+            keyboard.onKey(Keyboard.KEYCODE_DELETE, null);
+            keyboard.report(length);
+        }
+        // Only the text the word and chunk ticks look at.
+        assertEquals(1, editor.mFetches);
+        keyboard.onRelease(Keyboard.KEYCODE_DELETE);
+        final int fetches = editor.mFetches;
+        assertTrue(fetches + " fetches", fetches > 1 && fetches <= 3);
+
+        // A cursor moved by the app is looked at right away.
+        final int length = editor.mText.length();
+        editor.mText.append(DokabenConverter.lookup('ア'));
+        keyboard.report(length);
+        assertTrue(editor.mFetches > fetches);
+    }
+
+    @Test
+    public void outsideEditRefetches() {
+        final HeldDelete keyboard = new HeldDelete();
+        final Editor editor = keyboard.mEditor;
+        editor.mText.append(text(1000, 12));
+        keyboard.report(0);
+
+        keyboard.onPress(Keyboard.KEYCODE_DELETE);
+        for (int i = 0; i <= DeleteEngine.WORD_AFTER; i++) {
+            final int length = editor.mText.length();
+            keyboard.onKey(Keyboard.KEYCODE_DELETE, null);
+            keyboard.report(length);
+        }
+        assertEquals(1, editor.mFetches);
+
+        // The app appends text of its own; the kept text no longer matches.
+        final int length = editor.mText.length();
+        editor.mText.append("abc");
+        keyboard.report(length);
+        keyboard.onKey(Keyboard.KEYCODE_DELETE, null);
+        assertEquals(2, editor.mFetches);
+        assertEquals(length, editor.mText.length());
+    }
+}
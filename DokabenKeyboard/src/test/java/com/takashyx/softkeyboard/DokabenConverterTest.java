@@ -0,0 +1,73 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DokabenConverterTest {
+
+    /* katakana of the kana block with no shortcode: ヮ ヰ ヱ ヴ ヵ ヶ */
+    private static final String UNMAPPED = "ヮヰヱヴヵヶ";
+
+    @Test
+    public void matchesLegacyMapOverTheBlock() {
+        final String domain = LegacyConverter.domain();
+        for (int i = 0; i < domain.length(); i++) {
+            final String c = domain.substring(i, i + 1);
+            assertEquals(Integer.toHexString(c.charAt(0)), LegacyConverter.convert(c),
+                    DokabenConverter.convert(c));
+            assertEquals(LegacyConverter.MAP.get(c), DokabenConverter.lookup(c.charAt(0)));
+        }
+        assertEquals(LegacyConverter.convert(domain), DokabenConverter.convert(domain));
+    }
+
+    @Test
+    public void matchesLegacyMapOnRandomText() {
+        final String alphabet = LegacyConverter.domain() + "abc :_1、。漢";
+        final Random random = new Random(4);
+        for (int round = 0; round < 500; round++) {
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertEquals(LegacyConverter.convert(text.toString()), DokabenConverter.convert(text));
+        }
+    }
+
+    @Test
+    public void everyKatakanaHasItsShortcode() {
+        for (int c = 0x30A1; c <= 0x30F6; c++) {
+            final String shortcode = DokabenConverter.lookup(c);
+            if (UNMAPPED.indexOf(c) >= 0) {
+                assertNull(Integer.toHexString(c), shortcode);
+            } else {
+                assertNotNull(Integer.toHexString(c), shortcode);
+                assertTrue(shortcode, shortcode.startsWith(":dokaben_") && shortcode.endsWith(":"));
+            }
+        }
+    }
+
+    @Test
+    public void hiraganaShareKatakanaShortcodes() {
+        for (int c = 0x3041; c <= 0x3096; c++) {
+            assertEquals(Integer.toHexString(c), DokabenConverter.lookup(c + 0x60),
+                    DokabenConverter.lookup(c));
+        }
+        assertEquals(DokabenConverter.convert("ドカベン！？"), DokabenConverter.convert("どかべん！？"));
+    }
+
+    @Test
+    public void outsideTheBlocksPassesThrough() {
+        assertNull(DokabenConverter.lookup(0x3040));
+        assertNull(DokabenConverter.lookup(0x3097));
+        assertNull(DokabenConverter.lookup(0x30A0));
+        assertNull(DokabenConverter.lookup('a'));
+        assertEquals("a😀", DokabenConverter.convert("a😀"));
+    }
+}
@@ -0,0 +1,77 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DokabenDecoderTest {
+
+    @Test
+    public void decodesEveryShortcode() {
+        for (int cp = DokabenConverter.BLOCK_START; cp <= DokabenConverter.BLOCK_END; cp++) {
+            final String shortcode = DokabenConverter.lookup(cp);
+            if (shortcode != null) {
+                assertEquals(shortcode, String.valueOf((char) cp),
+                        DokabenDecoder.decode(shortcode));
+            }
+        }
+        assertEquals("！？", DokabenDecoder.decode(":dokaben_bikkuri::dokaben_hatena:"));
+    }
+
+    @Test
+    public void roundTripsRandomText() {
+        final Random random = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            final String text = randomText(random, 50);
+            assertEquals(text, DokabenDecoder.decode(DokabenConverter.convert(text)));
+        }
+    }
+
+    @Test
+    public void findsShortcodes() {
+        final String a = DokabenConverter.lookup('ア');
+        assertEquals(-1, DokabenDecoder.indexOfShortcode("no shortcode :dokaben"));
+        assertEquals(3, DokabenDecoder.indexOfShortcode("abc" + a + "def"));
+        assertEquals(a.length(), DokabenDecoder.shortcodeLengthBefore("xyz" + a, 3 + a.length()));
+        assertEquals(0, DokabenDecoder.shortcodeLengthBefore(a + "x", a.length() + 1));
+        assertEquals(0, DokabenDecoder.shortcodeLengthBefore("", 0));
+    }
+
+    @Test
+    public void longestShortcodeFitsTheTail() {
+        for (int cp = 0; cp <= Character.MAX_VALUE; cp++) {
+            final String shortcode = DokabenConverter.lookup(cp);
+            if (shortcode != null) {
+                assertTrue(shortcode, shortcode.length() <= DokabenDecoder.MAX_SHORTCODE_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * Katakana and the two marks mixed with ASCII that looks like the start of a
+     * shortcode, so the decoder has to back out of partial matches.
+     */
+    private static String randomText(Random random, int length) {
+        final String noise = " :dokaben_ab:";
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            final int pick = random.nextInt(10);
+            if (pick < 6) {
+                int cp;
+                do {
+                    cp = DokabenConverter.BLOCK_START + random.nextInt(
+                            DokabenConverter.BLOCK_END - DokabenConverter.BLOCK_START + 1);
+                } while (DokabenConverter.lookup(cp) == null);
+                text.append((char) cp);
+            } else if (pick < 7) {
+                text.append(random.nextBoolean() ? '！' : '？');
+            } else {
+                text.append(noise.charAt(random.nextInt(noise.length())));
+            }
+        }
+        return text.toString();
+    }
+}
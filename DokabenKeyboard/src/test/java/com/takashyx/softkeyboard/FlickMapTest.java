@@ -0,0 +1,150 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.util.Arrays;
+
+public class FlickMapTest {
+
+    /* small ya row on the left and right of ヤ, and ワ with its down hole kept */
+    private static final String TSV = "# key\tcenter\tleft\tup\tright\tdown\n"
+            + "ヤ\tヤ\tャ\tユ\tュ\tヨ\n"
+            + "ワ\tワ\tヲ\tン\tー\t-\n";
+    private static final String JSON = "{\"ヤ\": [\"ヤ\", \"ャ\", \"ユ\", \"ュ\", \"ヨ\"],"
+            + " \"ワ\": [\"ワ\", \"ヲ\", \"ン\", \"ー\", null]}";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void builtInTableCompilesToItself() throws Exception {
+        final String tsv = new String(Files.readAllBytes(
+                Paths.get("src/main/flick/flick_table.tsv")), StandardCharsets.UTF_8);
+        assertArrayEquals(FlickTables.FLICK_OUTPUT, FlickMapCompiler.compile(tsv));
+    }
+
+    @Test
+    public void tsvRoundTrips() throws Exception {
+        final int[] output = FlickMapCompiler.compile(TSV);
+        assertEquals('ャ', output[row('ヤ') + KanaTables.LEFT]);
+        assertEquals('ュ', output[row('ヤ') + KanaTables.RIGHT]);
+        assertEquals(0, output[row('ワ') + KanaTables.DOWN]);
+        // Keys left out keep their built-in outputs.
+        assertEquals('キ', output[row('カ') + KanaTables.LEFT]);
+        assertArrayEquals(output, FlickMap.decode(FlickMap.encode(output)));
+    }
+
+    @Test
+    public void jsonCompilesLikeTsv() throws Exception {
+        assertArrayEquals(FlickMapCompiler.compile(TSV), FlickMapCompiler.compile(JSON));
+    }
+
+    @Test
+    public void loadsSavedFile() throws Exception {
+        final int[] output = FlickMapCompiler.compile(JSON);
+        final File file = write(FlickMap.encode(output));
+        final FlickMap map = FlickMap.load(file);
+        assertEquals('ャ', map.output('ヤ', KanaTables.LEFT));
+        assertEquals('ヨ', map.output('ヤ', KanaTables.DOWN));
+        assertEquals(0, map.output('ワ', KanaTables.DOWN));
+    }
+
+    @Test
+    public void missingOrBadFileFallsBackToBuiltIn() throws Exception {
+        assertSame(FlickMap.BUILT_IN, FlickMap.load(new File(mFolder.getRoot(), "none")));
+        assertSame(FlickMap.BUILT_IN, FlickMap.load(write(new byte[] {1, 2, 3, 4})));
+    }
+
+    @Test
+    public void oversizedFileIsNotRead() throws Exception {
+        final File file = mFolder.newFile();
+        final RandomAccessFile sparse = new RandomAccessFile(file, "rw");
+        try {
+            // Past 2 GB, where the old (int) cast went negative.
+            sparse.setLength(Integer.MAX_VALUE + 16L);
+        } finally {
+            sparse.close();
+        }
+        assertSame(FlickMap.BUILT_IN, FlickMap.load(file));
+    }
+
+    @Test
+    public void compilerRejectsBadMaps() {
+        assertCompileFails("ヤ\tヤ\tャ\tユ\tュ\n");
+        assertCompileFails("ヤ\t-\tャ\tユ\tュ\tヨ\n");
+        assertCompileFails("ャ\tヤ\tャ\tユ\tュ\tヨ\n");
+        assertCompileFails("ヤ\tヤ\tャ\tユ\tュ\tヨ\nヤ\tヤ\tャ\tユ\tュ\tヨ\n");
+        assertCompileFails("ヤ\tヤ\tカ\tユ\tュ\tヨ\n");
+        assertCompileFails("{\"ヤ\": [\"ヤ\", \"ャ\"]}");
+        assertCompileFails("{\"ヤ\": ");
+        // Half of a surrogate pair is not a character.
+        assertCompileFails("ヤ\tヤ\tャ\tユ\t\uD83D\tヨ\n");
+        assertCompileFails("{\"ヤ\": [\"ヤ\", \"ャ\", \"ユ\", \"\\uDE00\", \"ヨ\"]}");
+    }
+
+    @Test
+    public void decoderRejectsBadFiles() throws Exception {
+        final byte[] good = FlickMap.encode(FlickTables.FLICK_OUTPUT);
+        assertDecodeFails(new byte[0]);
+        assertDecodeFails(Arrays.copyOf(good, good.length - 4));
+        assertDecodeFails(Arrays.copyOf(good, good.length + 4));
+        for (int header = 0; header < 4; header++) {
+            final byte[] bad = good.clone();
+            bad[header * 4 + 3] ^= 1;
+            assertDecodeFails(bad);
+        }
+        // A well-formed file whose outputs fail validation.
+        final int[] duplicate = FlickTables.FLICK_OUTPUT.clone();
+        duplicate[row('カ') + KanaTables.LEFT] = 'ア';
+        assertDecodeFails(FlickMap.encode(duplicate));
+        final int[] surrogate = FlickTables.FLICK_OUTPUT.clone();
+        surrogate[row('カ') + KanaTables.LEFT] = Character.MIN_SURROGATE;
+        assertDecodeFails(FlickMap.encode(surrogate));
+    }
+
+    private static int row(char key) {
+        return FlickTables.FLICK_ROW[key - FlickTables.BLOCK_START];
+    }
+
+    private File write(byte[] data) throws IOException {
+        final File file = mFolder.newFile();
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static void assertCompileFails(String text) {
+        try {
+            FlickMapCompiler.compile(text);
+            fail(text);
+        } catch (ParseException expected) {
+        }
+    }
+
+    private static void assertDecodeFails(byte[] data) {
+        try {
+            FlickMap.decode(data);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
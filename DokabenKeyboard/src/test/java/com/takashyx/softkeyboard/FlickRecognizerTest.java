@@ -0,0 +1,118 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlickRecognizerTest {
+
+    /* 0.35 of the shorter side of a 100x80 key */
+    private static final float THRESHOLD = 28f;
+    /* 0.6 of the threshold */
+    private static final float CENTER = 16.8f;
+
+    private static final float X = 200f;
+    private static final float Y = 300f;
+
+    private FlickRecognizer mRecognizer;
+
+    @Before
+    public void setUp() {
+        mRecognizer = new FlickRecognizer();
+        mRecognizer.setKeySize(100, 80);
+        mRecognizer.down(X, Y);
+    }
+
+    private int move(float dx, float dy) {
+        return mRecognizer.move(X + dx, Y + dy);
+    }
+
+    @Test
+    public void thresholdIsFractionOfShorterSide() {
+        assertEquals(KanaTables.CENTER, move(THRESHOLD - 0.1f, 0));
+        assertEquals(KanaTables.RIGHT, move(THRESHOLD, 0));
+
+        mRecognizer.setKeySize(80, 100);
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.CENTER, move(0, -(THRESHOLD - 0.1f)));
+        assertEquals(KanaTables.UP, move(0, -THRESHOLD));
+    }
+
+    @Test
+    public void thresholdIsMeasuredAlongTheDiagonal() {
+        // 20 and 20 is 28.3 away, past the threshold although neither axis is.
+        assertEquals(KanaTables.DOWN, move(19.9f, 20f));
+    }
+
+    @Test
+    public void defaultThresholdWithoutKeySize() {
+        mRecognizer.setKeySize(0, 80);
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.CENTER, move(-23.9f, 0));
+        assertEquals(KanaTables.LEFT, move(-24f, 0));
+    }
+
+    @Test
+    public void returningToCenterNeedsToComeWellInside() {
+        assertEquals(KanaTables.LEFT, move(-30, 0));
+        assertEquals(KanaTables.LEFT, move(-(THRESHOLD - 1), 0));
+        assertEquals(KanaTables.LEFT, move(-(CENTER + 0.1f), 0));
+        assertEquals(KanaTables.CENTER, move(-(CENTER - 0.1f), 0));
+        // Leaving the center again needs the full threshold.
+        assertEquals(KanaTables.CENTER, move(-(THRESHOLD - 1), 0));
+        assertEquals(KanaTables.LEFT, move(-THRESHOLD, 0));
+    }
+
+    @Test
+    public void switchingAxisNeedsBias() {
+        assertEquals(KanaTables.RIGHT, move(40, 0));
+        // 35 does not clear 30 * 1.3 = 39.
+        assertEquals(KanaTables.RIGHT, move(30, 35));
+        assertEquals(KanaTables.DOWN, move(30, 40));
+        // Back to horizontal, 30 must drop below 40 / 1.3 = 30.8.
+        assertEquals(KanaTables.DOWN, move(35, 30));
+        assertEquals(KanaTables.RIGHT, move(40, 30));
+    }
+
+    @Test
+    public void reversingAlongTheAxisNeedsNoBias() {
+        assertEquals(KanaTables.UP, move(0, -40));
+        assertEquals(KanaTables.DOWN, move(10, 40));
+        assertEquals(KanaTables.RIGHT, move(40, 0));
+        assertEquals(KanaTables.LEFT, move(-40, 10));
+    }
+
+    @Test
+    public void diagonalTiesGoHorizontal() {
+        assertEquals(KanaTables.RIGHT, move(30, 30));
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.LEFT, move(-30, -30));
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.RIGHT, move(30, -30));
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.LEFT, move(-30, 30));
+        // Just past the diagonal the vertical axis wins from the center.
+        mRecognizer.down(X, Y);
+        assertEquals(KanaTables.UP, move(30, -30.01f));
+    }
+
+    @Test
+    public void upEndsTracking() {
+        assertTrue(mRecognizer.isTracking());
+        assertEquals(KanaTables.DOWN, mRecognizer.up(X, Y + 40));
+        assertFalse(mRecognizer.isTracking());
+        assertEquals(KanaTables.DOWN, move(-40, 0));
+        assertEquals(KanaTables.DOWN, mRecognizer.getDirection());
+    }
+
+    @Test
+    public void cancelResets() {
+        move(40, 0);
+        mRecognizer.cancel();
+        assertFalse(mRecognizer.isTracking());
+        assertEquals(KanaTables.CENTER, mRecognizer.getDirection());
+    }
+}
@@ -0,0 +1,44 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class KanaTablesTest {
+
+    @Test
+    public void toHiraganaShiftsEveryKatakanaWithOne() {
+        for (int c = 0x30A1; c <= 0x30F6; c++) {
+            assertEquals(Integer.toHexString(c), c - 0x60, KanaTables.toHiragana(c));
+        }
+    }
+
+    @Test
+    public void toHiraganaLeavesTheRest() {
+        for (int c : new int[] {0x30A0, 0x30F7, 0x30FA, 'ー', '・', '？', 'a', 'あ', 0}) {
+            assertEquals(Integer.toHexString(c), c, KanaTables.toHiragana(c));
+        }
+        assertEquals("どかべーん？", KanaTables.toHiragana("ドカベーン？"));
+        assertEquals("", KanaTables.toHiragana(""));
+    }
+
+    @Test
+    public void nextKanaCyclesBothBlocks() {
+        assertEquals('ッ', KanaTables.nextKana(KanaTables.DAKUTEN, 'ツ'));
+        assertEquals('ヅ', KanaTables.nextKana(KanaTables.DAKUTEN, 'ッ'));
+        assertEquals('ツ', KanaTables.nextKana(KanaTables.DAKUTEN, 'ヅ'));
+        assertEquals('っ', KanaTables.nextKana(KanaTables.DAKUTEN, 'つ'));
+        assertEquals('づ', KanaTables.nextKana(KanaTables.DAKUTEN, 'っ'));
+        assertEquals('つ', KanaTables.nextKana(KanaTables.DAKUTEN, 'づ'));
+        assertEquals('ぱ', KanaTables.nextKana(KanaTables.DAKUTEN, 'ば'));
+    }
+
+    @Test
+    public void nextKanaOutsideRings() {
+        assertEquals(0, KanaTables.nextKana(KanaTables.DAKUTEN, 'ナ'));
+        assertEquals(0, KanaTables.nextKana(KanaTables.DAKUTEN, 'な'));
+        assertEquals(0, KanaTables.nextKana(KanaTables.DAKUTEN, 'a'));
+        // The kigou marks have no hiragana and cycle as they are.
+        assertEquals('！', KanaTables.nextKana(KanaTables.KIGOU, '？'));
+    }
+}
@@ -0,0 +1,185 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Checks the dictionary built by generateDictionary, whose path the build passes in
+ * the dictionary.asset system property, against a brute-force scan of the word list.
+ */
+public class KatakanaDictionaryTest {
+
+    private static final String WORDS = "src/main/dict/katakana_words.tsv";
+
+    /* words by frequency, most frequent first, ties by word */
+    private static List<String> sWords;
+    private static ByteBuffer sAsset;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        final List<String[]> rows = new ArrayList<String[]>();
+        for (String line : Files.readAllLines(Paths.get(WORDS), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty() && !line.startsWith("#")) {
+                rows.add(line.split("\t"));
+            }
+        }
+        Collections.sort(rows, new Comparator<String[]>() {
+            @Override
+            public int compare(String[] a, String[] b) {
+                final int byFrequency = Long.compare(Long.parseLong(b[1]), Long.parseLong(a[1]));
+                return byFrequency != 0 ? byFrequency : a[0].compareTo(b[0]);
+            }
+        });
+        sWords = new ArrayList<String>();
+        for (String[] row : rows) {
+            sWords.add(row[0]);
+        }
+
+        final FileChannel channel = FileChannel.open(
+                Paths.get(System.getProperty("dictionary.asset")), StandardOpenOption.READ);
+        try {
+            sAsset = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static List<String> expected(String prefix, int max) {
+        final List<String> words = new ArrayList<String>();
+        for (String word : sWords) {
+            if (words.size() < max && word.startsWith(prefix) && !word.equals(prefix)) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    private static TreeSet<String> allPrefixes() {
+        final TreeSet<String> prefixes = new TreeSet<String>();
+        for (String word : sWords) {
+            for (int i = 0; i <= word.length(); i++) {
+                prefixes.add(word.substring(0, i));
+            }
+        }
+        return prefixes;
+    }
+
+    @Test
+    public void matchesBruteForceForEveryPrefix() throws IOException {
+        final KatakanaDictionary dictionary = new KatakanaDictionary(sAsset.duplicate());
+        assertEquals(sWords.size(), dictionary.getWordCount());
+        final List<String> out = new ArrayList<String>();
+        for (String prefix : allPrefixes()) {
+            for (int max : new int[] {1, 3, 8, sWords.size() + 1}) {
+                out.clear();
+                final int added = dictionary.predict(prefix, max, out);
+                assertEquals(prefix + " top " + max, expected(prefix, max), out);
+                assertEquals(out.size(), added);
+            }
+        }
+    }
+
+    @Test
+    public void hiraganaPrefixReadsAsKatakana() throws IOException {
+        final KatakanaDictionary dictionary = new KatakanaDictionary(sAsset.duplicate());
+        final String word = sWords.get(0);
+        final String prefix = word.substring(0, 1);
+        final List<String> katakana = new ArrayList<String>();
+        final List<String> hiragana = new ArrayList<String>();
+        dictionary.predict(prefix, 8, katakana);
+        dictionary.predict(KanaTables.toHiragana(prefix), 8, hiragana);
+        assertEquals(katakana, hiragana);
+    }
+
+    @Test
+    public void unknownPrefixesPredictNothing() throws IOException {
+        final KatakanaDictionary dictionary = new KatakanaDictionary(sAsset.duplicate());
+        final List<String> out = new ArrayList<String>();
+        assertEquals(0, dictionary.predict("abc", 8, out));
+        assertEquals(0, dictionary.predict("ア1", 8, out));
+        assertEquals(0, dictionary.predict("ヲヲヲヲ", 8, out));
+        assertEquals(0, dictionary.predict("ア", 0, out));
+        assertTrue(out.isEmpty());
+        // Predictions are appended after what the list already holds.
+        out.add("x");
+        dictionary.predict("", 2, out);
+        assertEquals(expected("", 2), out.subList(1, out.size()));
+    }
+
+    @Test
+    public void rejectsDamagedFiles() {
+        final byte[] good = new byte[sAsset.capacity()];
+        sAsset.duplicate().get(good);
+        assertRejected(ByteBuffer.wrap(good, 0, 12).slice());
+        assertRejected(ByteBuffer.wrap(good, 0, good.length - 2).slice());
+        for (int header = 0; header < 5; header++) {
+            final byte[] bad = good.clone();
+            bad[header * 4 + 3] ^= 1;
+            assertRejected(ByteBuffer.wrap(bad));
+        }
+    }
+
+    private static void assertRejected(ByteBuffer buffer) {
+        try {
+            new KatakanaDictionary(buffer);
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void lookupsStayOffTheHeap() throws IOException {
+        final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+
+        // Opening only wraps the mapping; the dictionary stays off the heap.  The first
+        // open also loads classes, so it is not the one counted.
+        new KatakanaDictionary(sAsset.duplicate());
+        long before = threads.getThreadAllocatedBytes(thread);
+        final KatakanaDictionary dictionary = new KatakanaDictionary(sAsset.duplicate());
+        final long openBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        final String[] prefixes = allPrefixes().toArray(new String[0]);
+        final List<String> out = new ArrayList<String>(16);
+        for (int round = 0; round < 200; round++) {
+            for (String prefix : prefixes) {
+                out.clear();
+                dictionary.predict(prefix, 8, out);
+            }
+        }
+
+        int words = 0;
+        final int rounds = 200;
+        before = threads.getThreadAllocatedBytes(thread);
+        for (int round = 0; round < rounds; round++) {
+            for (String prefix : prefixes) {
+                out.clear();
+                words += dictionary.predict(prefix, 8, out);
+            }
+        }
+        final long lookupBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(openBytes + " bytes to open", openBytes < sAsset.capacity() / 4);
+        // Each word returned costs its String and char array; nothing else grows.
+        assertTrue(lookupBytes + " bytes for " + words + " words", lookupBytes < words * 128L);
+    }
+}
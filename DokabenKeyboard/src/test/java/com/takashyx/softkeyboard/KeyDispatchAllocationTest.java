@@ -0,0 +1,225 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.text.InputType;
+import android.view.Choreographer;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Replays keys through SoftKeyboard's press, key and release callbacks and checks the
+ * dispatch allocates nothing per key.  Runs against the default-valued android.jar of
+ * JVM tests, so the service is never attached; the editor is a wrapper that only
+ * counts commits, and the test runs the frames that send the composing text.
+ */
+public class KeyDispatchAllocationTest {
+
+    /* letters and separators, committed one char at a time */
+    private static final String KEYS = "dokaben, kakuei. yamada! iwaki? (tonoma) [satonaka]";
+    private static final int REPLAYED = 10000;
+
+    /* size of a flick key and a flick well past its threshold */
+    private static final int KEY = 100;
+    private static final float FAR = 40f;
+    /* keys typed per frame; fast typing is a few per frame */
+    private static final int KEYS_PER_FRAME = 3;
+
+    private static final class Editor extends InputConnectionWrapper {
+        int mCommits;
+        int mComposingUpdates;
+
+        Editor() {
+            super(null, true);
+        }
+
+        @Override
+        public boolean commitText(CharSequence text, int newCursorPosition) {
+            mCommits++;
+            return true;
+        }
+
+        @Override
+        public boolean setComposingText(CharSequence text, int newCursorPosition) {
+            mComposingUpdates++;
+            return true;
+        }
+    }
+
+    private static final class Frames implements EditCoalescer.Frames {
+        Choreographer.FrameCallback mPosted;
+
+        @Override
+        public void post(Choreographer.FrameCallback callback) {
+            mPosted = callback;
+        }
+
+        @Override
+        public void remove(Choreographer.FrameCallback callback) {
+            mPosted = null;
+        }
+
+        void run() {
+            final Choreographer.FrameCallback callback = mPosted;
+            mPosted = null;
+            if (callback != null) {
+                callback.doFrame(0);
+            }
+        }
+    }
+
+    private static final class Keyboard extends SoftKeyboard {
+        final Editor mEditor;
+        final Frames mFrames;
+
+        Keyboard() {
+            this(new Frames());
+        }
+
+        private Keyboard(Frames frames) {
+            super(frames);
+            mFrames = frames;
+            mEditor = new Editor();
+        }
+
+        @Override
+        public InputConnection getCurrentInputConnection() {
+            return mEditor;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static long allocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void type(Keyboard keyboard, int count) {
+        for (int i = 0; i < count; i++) {
+            final int code = KEYS.charAt(i % KEYS.length());
+            keyboard.onPress(code);
+            keyboard.onKey(code, null);
+            keyboard.onRelease(code);
+        }
+    }
+
+    @Test
+    public void dispatchAllocatesNothingPerKey() {
+        final Keyboard keyboard = new Keyboard();
+        keyboard.setWordSeparators(" .,;:!?()[]*&@{}/<>_+=|\"");
+        // Warm up so the JIT and class loading are out of the way.
+        type(keyboard, REPLAYED);
+
+        final int commitsBefore = keyboard.mEditor.mCommits;
+        final long before = allocated();
+        type(keyboard, REPLAYED);
+        final long bytes = allocated() - before;
+
+        assertEquals(REPLAYED, keyboard.mEditor.mCommits - commitsBefore);
+        assertEquals(bytes + " bytes over " + REPLAYED + " keys", 0, bytes / REPLAYED);
+    }
+
+    /* kana keys flicked in random directions, letters and separators, as typed */
+    private static final class Replay {
+        static final int FLICK = 0;
+        static final int LETTER = 1;
+        static final int SEPARATOR = 2;
+
+        final int[] mTypes;
+        final int[] mCodes;
+        final float[] mDx;
+        final float[] mDy;
+
+        Replay(int count, long seed) {
+            final StringBuilder flickKeys = new StringBuilder();
+            for (int c = KanaTables.BLOCK_START; c <= KanaTables.BLOCK_END; c++) {
+                if (KanaTables.isFlickKey(c)) {
+                    flickKeys.append((char) c);
+                }
+            }
+            final float[][] directions = {{0, 0}, {-FAR, 0}, {0, -FAR}, {FAR, 0}, {0, FAR}};
+            final Random random = new Random(seed);
+            mTypes = new int[count];
+            mCodes = new int[count];
+            mDx = new float[count];
+            mDy = new float[count];
+            for (int i = 0; i < count; i++) {
+                final int kind = random.nextInt(8);
+                if (kind < 5) {
+                    final float[] direction = directions[random.nextInt(directions.length)];
+                    mTypes[i] = FLICK;
+                    mCodes[i] = flickKeys.charAt(random.nextInt(flickKeys.length()));
+                    mDx[i] = direction[0];
+                    mDy[i] = direction[1];
+                } else if (kind < 7) {
+                    mTypes[i] = LETTER;
+                    mCodes[i] = 'a' + random.nextInt(26);
+                } else {
+                    mTypes[i] = SEPARATOR;
+                    mCodes[i] = ' ';
+                }
+            }
+        }
+    }
+
+    /* allocated while the frames ran, as opposed to while the keys were dispatched */
+    private static long sFrameBytes;
+    private static int sFrames;
+
+    private static void replay(Keyboard keyboard, OnSwipeTouchListener flicks, Replay replay) {
+        for (int i = 0; i < replay.mCodes.length; i++) {
+            final int code = replay.mCodes[i];
+            keyboard.onPress(code);
+            if (replay.mTypes[i] == Replay.FLICK) {
+                flicks.press(0, code, KEY, KEY, 0, 0);
+                flicks.release(0, replay.mDx[i], replay.mDy[i]);
+            }
+            keyboard.onKey(code, null);
+            keyboard.onRelease(code);
+            if (i % KEYS_PER_FRAME == KEYS_PER_FRAME - 1) {
+                final long before = allocated();
+                keyboard.mFrames.run();
+                sFrameBytes += allocated() - before;
+                sFrames++;
+            }
+        }
+    }
+
+    @Test
+    public void composingAndFlickKeysAllocateNothingPerKey() {
+        final Keyboard keyboard = new Keyboard();
+        keyboard.setWordSeparators(" .,;:!?()[]*&@{}/<>_+=|\"");
+        final EditorInfo attribute = new EditorInfo();
+        attribute.inputType = InputType.TYPE_CLASS_TEXT;
+        keyboard.onStartInput(attribute, false);
+        final OnSwipeTouchListener flicks = keyboard.createFlickListener();
+        final Replay replay = new Replay(REPLAYED, 9);
+        replay(keyboard, flicks, replay);
+
+        final Editor editor = keyboard.mEditor;
+        final int commitsBefore = editor.mCommits;
+        final int updatesBefore = editor.mComposingUpdates;
+        sFrameBytes = 0;
+        sFrames = 0;
+        final long before = allocated();
+        replay(keyboard, flicks, replay);
+        final long bytes = allocated() - before - sFrameBytes;
+
+        // The keys reached the editor, the composing text at most once a frame.
+        assertTrue(editor.mCommits > commitsBefore);
+        final int updates = editor.mComposingUpdates - updatesBefore;
+        assertTrue(updates + " updates", updates > 0 && updates <= sFrames);
+        assertEquals(bytes + " bytes over " + REPLAYED + " keys", 0, bytes / REPLAYED);
+        // A frame only builds the two candidate strings of the composing text.
+        assertTrue(sFrameBytes + " bytes over " + sFrames + " frames",
+                sFrameBytes / sFrames < 1024);
+    }
+}
@@ -0,0 +1,119 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import android.content.res.Configuration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the keys KeyboardCache builds its keyboards under, with a VariantCache whose
+ * builder only counts where it runs.
+ */
+public class KeyboardCacheTest {
+
+    private static final int PORTRAIT = Configuration.ORIENTATION_PORTRAIT;
+    private static final int LANDSCAPE = Configuration.ORIENTATION_LANDSCAPE;
+
+    /* sides of a phone display */
+    private static final int LONG_SIDE = 2340;
+    private static final int SHORT_SIDE = 1080;
+
+    private Thread mCaller;
+    private final AtomicInteger mBuilds = new AtomicInteger();
+    private final AtomicInteger mCallerBuilds = new AtomicInteger();
+    private VariantCache<Object> mCache;
+
+    @Before
+    public void setUp() {
+        mCaller = Thread.currentThread();
+        mCache = new VariantCache<Object>(new VariantCache.Builder<Object>() {
+            @Override
+            public Object build(long key) {
+                mBuilds.incrementAndGet();
+                if (Thread.currentThread() == mCaller) {
+                    mCallerBuilds.incrementAndGet();
+                }
+                return new Object();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mCache.close();
+    }
+
+    private Object[] layouts(int orientation) {
+        final Object[] keyboards = new Object[KeyboardCache.LAYOUTS];
+        for (int layout = 0; layout < keyboards.length; layout++) {
+            keyboards[layout] = mCache.get(
+                    KeyboardCache.key(LONG_SIDE, SHORT_SIDE, orientation, layout));
+        }
+        return keyboards;
+    }
+
+    @Test
+    public void rotatingThereAndBackNeverBuildsOnCaller() throws Exception {
+        mCache.warm(KeyboardCache.keys(LONG_SIDE, SHORT_SIDE, PORTRAIT)).get();
+        final Object[] portrait = layouts(PORTRAIT);
+        final Object[] landscape = layouts(LANDSCAPE);
+
+        for (int turn = 0; turn < 4; turn++) {
+            // A rotated service prepares for its new orientation and shows a layout
+            // right away, before the background thread has done anything.
+            final int orientation = turn % 2 == 0 ? LANDSCAPE : PORTRAIT;
+            final Future<?> warming =
+                    mCache.warm(KeyboardCache.keys(LONG_SIDE, SHORT_SIDE, orientation));
+            final Object[] expected = orientation == LANDSCAPE ? landscape : portrait;
+            for (int layout = 0; layout < KeyboardCache.LAYOUTS; layout++) {
+                assertSame(expected[layout], mCache.get(
+                        KeyboardCache.key(LONG_SIDE, SHORT_SIDE, orientation, layout)));
+            }
+            warming.get();
+        }
+        assertEquals(0, mCallerBuilds.get());
+        // Each layout is built once per orientation.
+        assertEquals(2 * KeyboardCache.LAYOUTS, mBuilds.get());
+    }
+
+    @Test
+    public void keysCoverBothOrientationsWhicheverIsCurrent() {
+        final long[] portrait = KeyboardCache.keys(LONG_SIDE, SHORT_SIDE, PORTRAIT);
+        final long[] landscape = KeyboardCache.keys(LONG_SIDE, SHORT_SIDE, LANDSCAPE);
+        assertEquals(2 * KeyboardCache.LAYOUTS, portrait.length);
+        assertEquals(portrait.length, set(portrait).size());
+        assertEquals(set(portrait), set(landscape));
+        // The current orientation is built first.
+        assertEquals(KeyboardCache.key(LONG_SIDE, SHORT_SIDE, LANDSCAPE, 0), landscape[0]);
+        assertEquals(KeyboardCache.key(LONG_SIDE, SHORT_SIDE, PORTRAIT, 0), portrait[0]);
+    }
+
+    @Test
+    public void otherDisplaysHaveOtherKeys() {
+        final Set<Long> keys = set(KeyboardCache.keys(LONG_SIDE, SHORT_SIDE, PORTRAIT));
+        for (long key : KeyboardCache.keys(LONG_SIDE, SHORT_SIDE - 1, PORTRAIT)) {
+            assertFalse(keys.contains(key));
+        }
+        for (long key : KeyboardCache.keys(LONG_SIDE + 1, SHORT_SIDE, PORTRAIT)) {
+            assertFalse(keys.contains(key));
+        }
+    }
+
+    private static Set<Long> set(long[] keys) {
+        final Set<Long> set = new HashSet<Long>();
+        for (long key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+}
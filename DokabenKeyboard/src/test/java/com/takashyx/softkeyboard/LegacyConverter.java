@@ -0,0 +1,123 @@
+package com.takashyx.softkeyboard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The map SoftKeyboard.dokabenConvert used before the table-driven converter, kept as
+ * the reference DokabenConverterTest checks against and the benchmark module times.
+ */
+final class LegacyConverter {
+
+    static final Map<String, String> MAP = new HashMap<String, String>();
+
+    static {
+        MAP.put("ア",":dokaben_a:");
+        MAP.put("イ",":dokaben_i:");
+        MAP.put("ウ",":dokaben_u:");
+        MAP.put("エ",":dokaben_e:");
+        MAP.put("オ",":dokaben_o:");
+        MAP.put("ァ",":dokaben_a_small:");
+        MAP.put("ィ",":dokaben_i_small:");
+        MAP.put("ゥ",":dokaben_u_small:");
+        MAP.put("ェ",":dokaben_e_small:");
+        MAP.put("ォ",":dokaben_o_small:");
+        MAP.put("カ",":dokaben_ka:");
+        MAP.put("キ",":dokaben_ki:");
+        MAP.put("ク",":dokaben_ku:");
+        MAP.put("ケ",":dokaben_ke:");
+        MAP.put("コ",":dokaben_ko:");
+        MAP.put("ガ",":dokaben_ga:");
+        MAP.put("ギ",":dokaben_gi:");
+        MAP.put("グ",":dokaben_gu:");
+        MAP.put("ゲ",":dokaben_ge:");
+        MAP.put("ゴ",":dokaben_go:");
+        MAP.put("サ",":dokaben_sa:");
+        MAP.put("シ",":dokaben_si:");
+        MAP.put("ス",":dokaben_su:");
+        MAP.put("セ",":dokaben_se:");
+        MAP.put("ソ",":dokaben_so:");
+        MAP.put("ザ",":dokaben_za:");
+        MAP.put("ジ",":dokaben_zi:");
+        MAP.put("ズ",":dokaben_zu:");
+        MAP.put("ゼ",":dokaben_ze:");
+        MAP.put("ゾ",":dokaben_zo:");
+        MAP.put("タ",":dokaben_ta:");
+        MAP.put("チ",":dokaben_ti:");
+        MAP.put("ツ",":dokaben_tu:");
+        MAP.put("テ",":dokaben_te:");
+        MAP.put("ト",":dokaben_to:");
+        MAP.put("ダ",":dokaben_da:");
+        MAP.put("ヂ",":dokaben_di:");
+        MAP.put("ヅ",":dokaben_du:");
+        MAP.put("デ",":dokaben_de:");
+        MAP.put("ド",":dokaben_do:");
+        MAP.put("ナ",":dokaben_na:");
+        MAP.put("ニ",":dokaben_ni:");
+        MAP.put("ヌ",":dokaben_nu:");
+        MAP.put("ネ",":dokaben_ne:");
+        MAP.put("ノ",":dokaben_no:");
+        MAP.put("ハ",":dokaben_ha:");
+        MAP.put("ヒ",":dokaben_hi:");
+        MAP.put("フ",":dokaben_hu:");
+        MAP.put("ヘ",":dokaben_he:");
+        MAP.put("ホ",":dokaben_ho:");
+        MAP.put("バ",":dokaben_ba:");
+        MAP.put("ビ",":dokaben_bi:");
+        MAP.put("ブ",":dokaben_bu:");
+        MAP.put("ベ",":dokaben_be:");
+        MAP.put("ボ",":dokaben_bo:");
+        MAP.put("パ",":dokaben_pa:");
+        MAP.put("ピ",":dokaben_pi:");
+        MAP.put("プ",":dokaben_pu:");
+        MAP.put("ペ",":dokaben_pe:");
+        MAP.put("ポ",":dokaben_po:");
+        MAP.put("マ",":dokaben_ma:");
+        MAP.put("ミ",":dokaben_mi:");
+        MAP.put("ム",":dokaben_mu:");
+        MAP.put("メ",":dokaben_me:");
+        MAP.put("モ",":dokaben_mo:");
+        MAP.put("ヤ",":dokaben_ya:");
+        MAP.put("ユ",":dokaben_yu:");
+        MAP.put("ヨ",":dokaben_yo:");
+        MAP.put("ラ",":dokaben_ra:");
+        MAP.put("リ",":dokaben_ri:");
+        MAP.put("ル",":dokaben_ru:");
+        MAP.put("レ",":dokaben_re:");
+        MAP.put("ロ",":dokaben_ro:");
+        MAP.put("ッ",":dokaben_tu_small:");
+        MAP.put("ャ",":dokaben_ya_small:");
+        MAP.put("ュ",":dokaben_yu_small:");
+        MAP.put("ョ",":dokaben_yo_small:");
+        MAP.put("ワ",":dokaben_wa:");
+        MAP.put("ヲ",":dokaben_wo:");
+        MAP.put("ン",":dokaben_n:");
+        MAP.put("ー",":dokaben_-:");
+        MAP.put("！",":dokaben_bikkuri:");
+        MAP.put("？",":dokaben_hatena:");
+    }
+
+    static String convert(String s) {
+        String out = "";
+        for (String c : s.split("")) {
+            if (MAP.containsKey(c)) {
+                out = out + MAP.get(c);
+            } else {
+                out = out + c;
+            }
+        }
+        return out;
+    }
+
+    /* the old converter's domain: the katakana block and the two marks */
+    static String domain() {
+        final StringBuilder chars = new StringBuilder();
+        for (int c = DokabenConverter.BLOCK_START; c <= DokabenConverter.BLOCK_END; c++) {
+            chars.append((char) c);
+        }
+        return chars.append("！？").toString();
+    }
+
+    private LegacyConverter() {
+    }
+}
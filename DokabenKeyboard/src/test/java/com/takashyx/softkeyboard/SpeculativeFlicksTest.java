@@ -0,0 +1,146 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replays multi-finger sequences through the flick listener wired to the speculative
+ * tail the way SoftKeyboard wires them, with backspace and dakuten from another finger
+ * going through {@link OnSwipeTouchListener#commitPending} first.
+ */
+public class SpeculativeFlicksTest {
+
+    private static final int KEY = 100;
+    private static final float FAR = 40f;
+
+    private final ComposingText mComposing = new ComposingText();
+    private final SpeculativeFlicks mSpeculative = new SpeculativeFlicks(mComposing);
+    private OnSwipeTouchListener mFlicks;
+
+    @Before
+    public void setUp() {
+        mFlicks = new OnSwipeTouchListener() {
+            @Override
+            public void onFlickChanged() {
+                mSpeculative.show(this, false);
+            }
+
+            @Override
+            public void onFlickCommit(int keyCode, int direction) {
+                mSpeculative.commit(FlickMap.BUILT_IN.output(keyCode, direction));
+            }
+        };
+    }
+
+    private void press(int pointer, char key) {
+        mFlicks.press(pointer, key, KEY, KEY, 0, 0);
+    }
+
+    private void release(int pointer, float dx, float dy) {
+        mFlicks.release(pointer, dx, dy);
+    }
+
+    /* SoftKeyboard.handleBackspace while composing */
+    private void backspace() {
+        mFlicks.commitPending();
+        mComposing.deleteLast();
+    }
+
+    /* SoftKeyboard.handleDakuten while composing */
+    private void dakuten() {
+        mFlicks.commitPending();
+        final int next = KanaTables.nextKana(KanaTables.DAKUTEN, mComposing.lastChar());
+        if (next != 0) {
+            mComposing.replaceLast((char) next);
+        }
+    }
+
+    private void assertComposing(String expected) {
+        assertEquals(expected, mComposing.toString());
+        assertEquals(DokabenConverter.convert(expected), mComposing.getConverted().toString());
+    }
+
+    @Test
+    public void releasedFlicksStay() {
+        press(0, 'カ');
+        assertComposing("カ");
+        release(0, FAR, 0);
+        assertComposing("ケ");
+        press(0, 'ア');
+        release(0, 0, 0);
+        assertComposing("ケア");
+        assertEquals(0, mSpeculative.getTailLength());
+    }
+
+    @Test
+    public void releasesCommitInPressOrder() {
+        press(0, 'カ');
+        press(1, 'サ');
+        assertComposing("カサ");
+        // Released but waiting on the first finger; its direction shows already.
+        release(1, 0, FAR);
+        assertComposing("カソ");
+        assertEquals(2, mSpeculative.getTailLength());
+        release(0, -FAR, 0);
+        assertComposing("キソ");
+    }
+
+    @Test
+    public void backspaceWithAnotherFingerDeletesWhatIsShown() {
+        press(0, 'ア');
+        release(0, 0, 0);
+        press(0, 'カ');
+        assertComposing("アカ");
+        backspace();
+        assertComposing("ア");
+        // The flick was committed as shown; lifting it changes nothing, and the next
+        // flick must not eat the composed text.
+        release(0, FAR, 0);
+        assertComposing("ア");
+        press(0, 'サ');
+        release(0, 0, 0);
+        assertComposing("アサ");
+    }
+
+    @Test
+    public void dakutenWithAnotherFingerCyclesWhatIsShown() {
+        press(0, 'ハ');
+        dakuten();
+        assertComposing("バ");
+        dakuten();
+        assertComposing("パ");
+        release(0, 0, 0);
+        assertComposing("パ");
+        press(0, 'タ');
+        assertComposing("パタ");
+        release(0, 0, FAR);
+        assertComposing("パト");
+    }
+
+    @Test
+    public void holesShowNothing() {
+        press(0, 'ヤ');
+        press(1, 'ア');
+        assertComposing("ヤア");
+        // Left of ヤ is a hole.
+        release(0, -FAR, 0);
+        release(1, 0, 0);
+        assertComposing("ア");
+        press(0, 'ヤ');
+        mFlicks.release(0, -FAR, 0);
+        backspace();
+        assertComposing("");
+    }
+
+    @Test
+    public void staleTailIsDroppedAfterClear() {
+        press(0, 'カ');
+        mComposing.clear();
+        press(1, 'サ');
+        assertComposing("カサ");
+        mFlicks.cancel();
+        assertComposing("");
+    }
+}
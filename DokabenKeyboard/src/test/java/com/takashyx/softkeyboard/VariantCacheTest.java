@@ -0,0 +1,93 @@
+package com.takashyx.softkeyboard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless check of the layout switch path: once the variants are warmed, switching
+ * to any of them is a lookup, with no build on the caller.
+ */
+public class VariantCacheTest {
+
+    /* stands in for inflating a keyboard from XML */
+    private static final long BUILD_MILLIS = 5;
+
+    private Thread mCaller;
+    private final AtomicInteger mBuilds = new AtomicInteger();
+    private final AtomicInteger mCallerBuilds = new AtomicInteger();
+    private VariantCache<Object> mCache;
+
+    @Before
+    public void setUp() {
+        mCaller = Thread.currentThread();
+        mCache = new VariantCache<Object>(new VariantCache.Builder<Object>() {
+            @Override
+            public Object build(long key) {
+                mBuilds.incrementAndGet();
+                if (Thread.currentThread() == mCaller) {
+                    mCallerBuilds.incrementAndGet();
+                }
+                try {
+                    Thread.sleep(BUILD_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new Object();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mCache.close();
+    }
+
+    @Test
+    public void warmedSwitchNeverBuildsOnCaller() throws Exception {
+        final long[] keys = keys(0, 20);
+        mCache.warm(keys).get();
+        assertEquals(keys.length, mBuilds.get());
+
+        for (int round = 0; round < 1000; round++) {
+            for (long key : keys) {
+                mCache.get(key);
+            }
+        }
+        assertEquals(0, mCallerBuilds.get());
+        assertEquals(keys.length, mBuilds.get());
+    }
+
+    @Test
+    public void coldVariantIsBuiltOnCaller() {
+        final Object first = mCache.get(42);
+        assertSame(first, mCache.get(42));
+        assertEquals(1, mCallerBuilds.get());
+    }
+
+    @Test
+    public void warmDropsOtherVariants() throws Exception {
+        mCache.warm(keys(0, 4)).get();
+        final Object kept = mCache.peek(3);
+        mCache.warm(keys(2, 4)).get();
+        assertEquals(null, mCache.peek(0));
+        assertEquals(null, mCache.peek(1));
+        assertSame(kept, mCache.peek(3));
+        assertEquals(6, mBuilds.get());
+        assertNotSame(kept, mCache.peek(5));
+    }
+
+    private static long[] keys(int from, int count) {
+        final long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = from + i;
+        }
+        return keys;
+    }
+}
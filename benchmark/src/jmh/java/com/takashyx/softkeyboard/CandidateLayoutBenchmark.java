@@ -0,0 +1,71 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two things the candidate strip does per frame over 10k suggestions: measure the
+ * first window of a new set, as each keystroke does, and hit-test a touch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CandidateLayoutBenchmark {
+
+    /* a phone-wide strip */
+    private static final int WINDOW = 1080;
+    private static final int SUGGESTIONS = 10000;
+    private static final int TOUCHES = 4096;
+
+    private final int[] mXs = new int[TOUCHES];
+    private CandidateLayout mFresh;
+    private CandidateLayout mMeasured;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(7);
+        final int[] widths = new int[SUGGESTIONS];
+        for (int i = 0; i < SUGGESTIONS; i++) {
+            // Suggestions of 1 to 8 chars at 40 px, with the gaps.
+            widths[i] = (1 + random.nextInt(8)) * 40 + 20;
+        }
+        final CandidateLayout.Widths measure = new CandidateLayout.Widths() {
+            @Override
+            public int width(int index) {
+                return widths[index];
+            }
+        };
+        mFresh = new CandidateLayout(measure);
+        mMeasured = new CandidateLayout(measure);
+        mMeasured.reset(0, SUGGESTIONS);
+        final int total = mMeasured.measureUpTo(Integer.MAX_VALUE);
+        for (int i = 0; i < TOUCHES; i++) {
+            mXs[i] = random.nextInt(total);
+        }
+    }
+
+    @Benchmark
+    public int firstWindow() {
+        mFresh.reset(0, SUGGESTIONS);
+        return mFresh.measureUpTo(WINDOW);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOUCHES)
+    public int indexAt() {
+        int sum = 0;
+        for (int x : mXs) {
+            sum += mMeasured.indexAt(x);
+        }
+        return sum;
+    }
+}
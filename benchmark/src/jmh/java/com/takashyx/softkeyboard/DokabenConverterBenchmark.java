@@ -0,0 +1,73 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts a text of katakana, the two marks and the ASCII and kanji typed between
+ * them, as commitDokaben does with the whole composing text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DokabenConverterBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int length;
+
+    private String mText;
+
+    static String text(int length) {
+        final String alphabet = LegacyConverter.domain() + "abc :_1、。漢";
+        final Random random = new Random(length);
+        final StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    @Setup
+    public void setUp() {
+        mText = text(length);
+    }
+
+    @Benchmark
+    public String convert() {
+        return DokabenConverter.convert(mText);
+    }
+
+    /**
+     * The map lookup with string concatenation the table replaced.  It is quadratic in
+     * the length, so 100k chars would take seconds per call and is left out.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public static class Legacy {
+
+        @Param({"10", "1000"})
+        public int length;
+
+        private String mText;
+
+        @Setup
+        public void setUp() {
+            mText = text(length);
+        }
+
+        @Benchmark
+        public String convert() {
+            return LegacyConverter.convert(mText);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes converted text back to katakana, with ASCII noise that looks like the start
+ * of a shortcode so the automaton has to back out of partial matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DokabenDecoderBenchmark {
+
+    /* chars of text before it is converted */
+    @Param({"10", "1000", "100000"})
+    public int length;
+
+    private String mEncoded;
+    private StringBuilder mOut;
+
+    @Setup
+    public void setUp() {
+        final String noise = " :dokaben_ab:";
+        final Random random = new Random(length);
+        final StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            final int pick = random.nextInt(10);
+            if (pick < 6) {
+                int cp;
+                do {
+                    cp = DokabenConverter.BLOCK_START + random.nextInt(
+                            DokabenConverter.BLOCK_END - DokabenConverter.BLOCK_START + 1);
+                } while (DokabenConverter.lookup(cp) == null);
+                text.append((char) cp);
+            } else if (pick < 7) {
+                text.append(random.nextBoolean() ? '！' : '？');
+            } else {
+                text.append(noise.charAt(random.nextInt(noise.length())));
+            }
+        }
+        mEncoded = DokabenConverter.convert(text);
+        mOut = new StringBuilder(mEncoded.length());
+    }
+
+    @Benchmark
+    public int decode() {
+        mOut.setLength(0);
+        return DokabenDecoder.decode(mEncoded, 0, mEncoded.length(), mOut);
+    }
+}
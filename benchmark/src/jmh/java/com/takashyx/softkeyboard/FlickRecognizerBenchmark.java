@@ -0,0 +1,53 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies the moves of a finger circling a 100x80 key, alternating between inside
+ * and outside the threshold so every branch of the classifier is taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FlickRecognizerBenchmark {
+
+    private static final int STEPS = 64;
+    private static final float X = 200f;
+    private static final float Y = 300f;
+
+    private final float[] mXs = new float[STEPS];
+    private final float[] mYs = new float[STEPS];
+    private FlickRecognizer mRecognizer;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < STEPS; i++) {
+            final double angle = 2 * Math.PI * i / STEPS;
+            final float radius = (i & 8) == 0 ? 40f : 10f;
+            mXs[i] = X + (float) (radius * Math.cos(angle));
+            mYs[i] = Y + (float) (radius * Math.sin(angle));
+        }
+        mRecognizer = new FlickRecognizer();
+        mRecognizer.setKeySize(100, 80);
+        mRecognizer.down(X, Y);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public int move() {
+        int directions = 0;
+        for (int i = 0; i < STEPS; i++) {
+            directions += mRecognizer.move(mXs[i], mYs[i]);
+        }
+        return directions;
+    }
+}
@@ -0,0 +1,71 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts the top 8 completions of every prefix of every word, from the dictionary
+ * generateDictionary built, whose path the build passes in the dictionary.asset
+ * system property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KatakanaDictionaryBenchmark {
+
+    private ByteBuffer mAsset;
+    private KatakanaDictionary mDictionary;
+    private String[] mPrefixes;
+    private int mNext;
+    private final List<String> mOut = new ArrayList<String>(8);
+
+    @Setup
+    public void setUp() throws IOException {
+        final FileChannel channel = FileChannel.open(
+                Paths.get(System.getProperty("dictionary.asset")), StandardOpenOption.READ);
+        try {
+            mAsset = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+        mDictionary = new KatakanaDictionary(mAsset.duplicate());
+
+        final List<String> words = new ArrayList<String>();
+        mDictionary.predict("", mDictionary.getWordCount(), words);
+        final TreeSet<String> prefixes = new TreeSet<String>();
+        for (String word : words) {
+            for (int i = 0; i <= word.length(); i++) {
+                prefixes.add(word.substring(0, i));
+            }
+        }
+        mPrefixes = prefixes.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public KatakanaDictionary open() throws IOException {
+        return new KatakanaDictionary(mAsset.duplicate());
+    }
+
+    @Benchmark
+    public int predict() {
+        final String prefix = mPrefixes[mNext];
+        mNext = mNext + 1 < mPrefixes.length ? mNext + 1 : 0;
+        mOut.clear();
+        return mDictionary.predict(prefix, 8, mOut);
+    }
+}
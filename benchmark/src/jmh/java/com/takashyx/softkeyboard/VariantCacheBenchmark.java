@@ -0,0 +1,57 @@
+package com.takashyx.softkeyboard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Switches between warmed variants, as a layout key or a rotation does; the frame
+ * budget this has to stay far inside is 16.7 ms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VariantCacheBenchmark {
+
+    /* layouts times orientations, with room to spare */
+    private static final int VARIANTS = 20;
+
+    private long[] mKeys;
+    private int mNext;
+    private VariantCache<Object> mCache;
+
+    @Setup
+    public void setUp() throws InterruptedException, ExecutionException {
+        mCache = new VariantCache<Object>(new VariantCache.Builder<Object>() {
+            @Override
+            public Object build(long key) {
+                return new Object();
+            }
+        });
+        mKeys = new long[VARIANTS];
+        for (int i = 0; i < VARIANTS; i++) {
+            mKeys[i] = i;
+        }
+        mCache.warm(mKeys).get();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mCache.close();
+    }
+
+    @Benchmark
+    public Object get() {
+        final long key = mKeys[mNext];
+        mNext = mNext + 1 < mKeys.length ? mNext + 1 : 0;
+        return mCache.get(key);
+    }
+}